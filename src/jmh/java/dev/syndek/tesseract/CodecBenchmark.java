@@ -0,0 +1,82 @@
+package dev.syndek.tesseract;
+
+import java.util.concurrent.TimeUnit;
+import org.bukkit.block.Sign;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Sign text decoding and encoding. Every sample holds 773 cobblestone, in the
+ * encoding scheme of the given version; "NONE" is a plain sign that must be
+ * rejected.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark {
+
+    @Param({"V1", "V2", "V3", "V4", "NONE"})
+    public String version;
+
+    private Sign sign;
+
+    @Setup
+    public void setup() {
+        Fakes.installServer();
+        switch (version) {
+            case "V1":
+                sign = Fakes.sign(TesseractCodec.HEADER, "COBBLESTONE", "12x64+5", "000030500040000");
+                break;
+            case "V2":
+                sign = Fakes.sign(TesseractCodec.HEADER_V2, "COBBLESTONE", "12x64+5", "000000001We0W00");
+                break;
+            case "V3":
+                sign = Fakes.sign(TesseractCodec.HEADER, "-", "COBBLESTONE", "773");
+                break;
+            case "V4":
+                sign = Fakes.sign(TesseractCodec.HEADER, "COBBLESTONE", "12x64+5", "");
+                break;
+            default:
+                sign = Fakes.sign("Welcome to", "the server", "", "");
+                break;
+        }
+    }
+
+    @Benchmark
+    public Tesseract of() {
+        return Tesseract.of(sign);
+    }
+
+    @Benchmark
+    public String encodeStackNotation() {
+        return TesseractCodec.encodeStackNotation(773, 64);
+    }
+
+    @Benchmark
+    public long parseStackNotation() {
+        return TesseractCodec.parseStackNotation("12x64+5");
+    }
+
+    @Benchmark
+    public long parseLong64() {
+        return TesseractCodec.parseLong64("000000001We0W00", 7, 15);
+    }
+
+    @Benchmark
+    @SuppressWarnings("deprecation")
+    public Object convertLegacyMaterial() {
+        return Tesseract.convertLegacyMaterial(35, 14);
+    }
+}
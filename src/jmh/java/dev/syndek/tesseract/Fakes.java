@@ -0,0 +1,198 @@
+package dev.syndek.tesseract;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.logging.Logger;
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.Server;
+import org.bukkit.UnsafeValues;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.Sign;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemFactory;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Lightweight stand-ins for the Bukkit objects the benchmarks touch. They are
+ * dynamic proxies that implement only the handful of methods Tesseract
+ * actually calls, and return default values for everything else.
+ */
+final class Fakes {
+
+    private static final World WORLD = proxy(World.class, (method, args) -> {
+        switch (method.getName()) {
+            case "getUID":
+                return new UUID(0, 0);
+            case "getName":
+                return "world";
+            default:
+                return null;
+        }
+    });
+
+    private Fakes() {
+    }
+
+    /**
+     * Installs a server whose item factory treats every stack as meta-free
+     * and whose legacy conversion maps everything to stone.
+     */
+    static synchronized void installServer() {
+        if (Bukkit.getServer() != null) {
+            return;
+        }
+        ItemFactory itemFactory = proxy(ItemFactory.class, (method, args) ->
+                method.getName().equals("equals") && args.length == 2 ? args[0] == args[1] : null);
+        UnsafeValues unsafe = proxy(UnsafeValues.class, (method, args) ->
+                method.getName().equals("fromLegacy") ? Material.STONE : null);
+        Logger logger = Logger.getLogger("FakeServer");
+        Bukkit.setServer(proxy(Server.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getItemFactory":
+                    return itemFactory;
+                case "getUnsafe":
+                    return unsafe;
+                case "getLogger":
+                    return logger;
+                case "getName":
+                case "getVersion":
+                case "getBukkitVersion":
+                    return "benchmark";
+                default:
+                    return null;
+            }
+        }));
+    }
+
+    /**
+     * @param lines
+     * @return a sign holding the given text and no persistent data
+     */
+    static Sign sign(final String... lines) {
+        String[] text = Arrays.copyOf(lines, 4);
+        return proxy(Sign.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getLine":
+                    return text[(Integer) args[0]];
+                case "setLine":
+                    text[(Integer) args[0]] = (String) args[1];
+                    return null;
+                case "getLines":
+                    return text.clone();
+                case "getType":
+                    return Material.OAK_WALL_SIGN;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    /**
+     * @param x
+     * @param y
+     * @param z
+     * @param sign
+     * @return a sign block at the given position whose state is the sign
+     */
+    static Block signBlock(final int x, final int y, final int z, final Sign sign) {
+        return proxy(Block.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getX":
+                    return x;
+                case "getY":
+                    return y;
+                case "getZ":
+                    return z;
+                case "getWorld":
+                    return WORLD;
+                case "getType":
+                    return Material.OAK_WALL_SIGN;
+                case "getState":
+                    return sign;
+                case "getLocation":
+                    return new Location(WORLD, x, y, z);
+                default:
+                    return null;
+            }
+        });
+    }
+
+    /**
+     * @param contents
+     * @return an inventory backed by the given array
+     */
+    static Inventory inventory(final ItemStack[] contents) {
+        return proxy(Inventory.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getSize":
+                    return contents.length;
+                case "getItem":
+                    return contents[(Integer) args[0]];
+                case "setItem":
+                    contents[(Integer) args[0]] = (ItemStack) args[1];
+                    return null;
+                case "getContents":
+                case "getStorageContents":
+                    return contents.clone();
+                case "setContents":
+                case "setStorageContents":
+                    ItemStack[] items = (ItemStack[]) args[0];
+                    System.arraycopy(items, 0, contents, 0, contents.length);
+                    return null;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(final Class<T> type, final Handler handler) {
+        InvocationHandler invocationHandler = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return type.getSimpleName();
+                }
+            }
+            Object result = handler.handle(method, args == null ? new Object[0] : args);
+            return result != null ? result : defaultValue(method.getReturnType());
+        };
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, invocationHandler);
+    }
+
+    private static Object defaultValue(final Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == double.class) {
+            return 0.0;
+        } else if (type == float.class) {
+            return 0.0f;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        } else if (type == char.class) {
+            return (char) 0;
+        }
+        return null;
+    }
+
+    private interface Handler {
+
+        Object handle(Method method, Object[] args);
+    }
+}
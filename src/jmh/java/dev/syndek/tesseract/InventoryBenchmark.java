@@ -0,0 +1,99 @@
+package dev.syndek.tesseract;
+
+import java.util.concurrent.TimeUnit;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Bulk transfers between a Tesseract and a chest: a dropper dumping its
+ * contents, and a hopper being filled. Each invocation starts from the same
+ * state, and includes queueing the sign write but not the write itself.
+ *
+ * The state is reset inside the benchmark method, since Level.Invocation
+ * fixtures add timestamping overhead comparable to a single transfer. The
+ * scores therefore include the reset: refilling the chest array and
+ * allocating one Tesseract, plus 27 ItemStacks for a deposit.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InventoryBenchmark {
+
+    private static final int CHEST_SIZE = 27;
+    private static final int STACK_SIZE = 64;
+
+    @Benchmark
+    public boolean depositAllAndUpdate(final DepositState state) {
+        state.reset();
+        return state.tesseract.depositAllAndUpdate(state.inventory, state.signBlock);
+    }
+
+    @Benchmark
+    public boolean fillInventoryAndUpdate(final FillState state) {
+        state.reset();
+        return state.tesseract.fillInventoryAndUpdate(state.inventory, state.signBlock, false);
+    }
+
+    @State(Scope.Thread)
+    public static class ChestState {
+
+        final ItemStack[] contents = new ItemStack[CHEST_SIZE];
+        Inventory inventory;
+        Block signBlock;
+        Tesseract tesseract;
+
+        @Setup(Level.Trial)
+        public void setupTrial() {
+            Fakes.installServer();
+            inventory = Fakes.inventory(contents);
+            signBlock = Fakes.signBlock(0, 64, 0, Fakes.sign("", "", "", ""));
+        }
+
+        @TearDown(Level.Iteration)
+        public void flushWrites() {
+            SignWriteQueue.getInstance().flush();
+        }
+    }
+
+    /**
+     * A chest full of cobblestone next to a Tesseract that already holds some.
+     */
+    public static class DepositState extends ChestState {
+
+        void reset() {
+            for (int i = 0; i < CHEST_SIZE; i++) {
+                contents[i] = new ItemStack(Material.COBBLESTONE, STACK_SIZE);
+            }
+            tesseract = new Tesseract(Material.COBBLESTONE, 1);
+        }
+    }
+
+    /**
+     * An empty chest next to a Tesseract holding exactly a chest's worth.
+     */
+    public static class FillState extends ChestState {
+
+        void reset() {
+            for (int i = 0; i < CHEST_SIZE; i++) {
+                contents[i] = null;
+            }
+            tesseract = new Tesseract(Material.COBBLESTONE, CHEST_SIZE * STACK_SIZE);
+        }
+    }
+}
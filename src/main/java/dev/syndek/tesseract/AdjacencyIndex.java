@@ -0,0 +1,111 @@
+package dev.syndek.tesseract;
+
+import java.util.HashMap;
+import java.util.UUID;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+
+/**
+ * Maps block positions to the cardinal faces on which a Tesseract is
+ * attached, as a bit mask. The index is maintained by the TesseractCache
+ * whenever a Tesseract is cached or dropped, so a dropper or hopper learns
+ * its attached Tesseracts with a single lookup and without inspecting any
+ * neighbouring block.
+ */
+final class AdjacencyIndex {
+
+    static final BlockFace[] CARDINAL_FACES = {BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST};
+
+    private static final AdjacencyIndex INSTANCE = new AdjacencyIndex();
+
+    private final HashMap<UUID, LongObjectMap<Byte>> worlds = new HashMap<>();
+
+    private AdjacencyIndex() {
+    }
+
+    static AdjacencyIndex getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param block
+     * @return a mask with bit i set if a Tesseract is attached on
+     * CARDINAL_FACES[i], or 0 if there are none
+     */
+    int get(final Block block) {
+        LongObjectMap<Byte> masks = worlds.get(block.getWorld().getUID());
+        if (masks == null) {
+            return 0;
+        }
+        Byte mask = masks.get(BlockKey.of(block));
+        return mask == null ? 0 : mask;
+    }
+
+    /**
+     * Record a Tesseract at the given position with each of its four
+     * horizontal neighbours.
+     *
+     * @param world
+     * @param signKey
+     */
+    void add(final UUID world, final long signKey) {
+        LongObjectMap<Byte> masks = worlds.get(world);
+        if (masks == null) {
+            masks = new LongObjectMap<>(256);
+            worlds.put(world, masks);
+        }
+        for (int i = 0; i < CARDINAL_FACES.length; i++) {
+            long key = neighbourFacing(signKey, CARDINAL_FACES[i]);
+            Byte mask = masks.get(key);
+            masks.put(key, (byte) ((mask == null ? 0 : mask) | (1 << i)));
+        }
+    }
+
+    void remove(final UUID world, final long signKey) {
+        LongObjectMap<Byte> masks = worlds.get(world);
+        if (masks == null) {
+            return;
+        }
+        for (int i = 0; i < CARDINAL_FACES.length; i++) {
+            long key = neighbourFacing(signKey, CARDINAL_FACES[i]);
+            Byte mask = masks.get(key);
+            if (mask == null) {
+                continue;
+            }
+            int remaining = mask & ~(1 << i);
+            if (remaining == 0) {
+                masks.remove(key);
+            } else {
+                masks.put(key, (byte) remaining);
+            }
+        }
+    }
+
+    void unloadWorld(final UUID world) {
+        worlds.remove(world);
+    }
+
+    void clear() {
+        worlds.clear();
+    }
+
+    /**
+     * @return the number of positions with at least one attached Tesseract
+     */
+    int size() {
+        int size = 0;
+        for (LongObjectMap<Byte> masks : worlds.values()) {
+            size += masks.size();
+        }
+        return size;
+    }
+
+    /**
+     * @param signKey
+     * @param face
+     * @return the position whose neighbour on the given face is the sign
+     */
+    private static long neighbourFacing(final long signKey, final BlockFace face) {
+        return BlockKey.of(BlockKey.x(signKey) - face.getModX(), BlockKey.y(signKey), BlockKey.z(signKey) - face.getModZ());
+    }
+}
@@ -0,0 +1,200 @@
+package dev.syndek.tesseract;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.UUID;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Container;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Runs the transfers of dropper- and hopper-fed Tesseracts outside of
+ * BlockPhysicsEvent. Containers are queued on a positive redstone edge and
+ * processed on a fixed tick cadence. Each run stops after a configurable number
+ * of transfers or amount of time, and the remaining containers carry over to
+ * the next run. A container is queued at most once, no matter how many edges
+ * it sees before it is processed.
+ *
+ * A dropper ejects an item 4 ticks after its redstone edge, and its transfer
+ * must run before that to take the whole inventory. Droppers that would miss
+ * this deadline if left to the next run are transferred even past the limits
+ * of the current run. The deadline only holds for periods of up to 3 ticks; with longer
+ * periods, or while the backlog exceeds what a tick can take, a dropper may
+ * eject one item before the rest is transferred.
+ */
+final class AutomationScheduler {
+
+    private static final AutomationScheduler INSTANCE = new AutomationScheduler();
+    private static final int DISPENSE_DELAY_TICKS = 4;
+
+    private final ArrayDeque<Transfer> queue = new ArrayDeque<>();
+    private final HashMap<UUID, LongObjectMap<Transfer>> queued = new HashMap<>();
+    private long period = 1;
+    private int maxTransfersPerRun = 64;
+    private TickBudget budget = new TickBudget(500);
+    private BukkitTask task;
+    // Ticks since start, advanced once per run
+    private long tick;
+
+    private AutomationScheduler() {
+    }
+
+    static AutomationScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    void start(final Plugin plugin) {
+        ConfigurationSection config = plugin.getConfig();
+        period = Math.max(1, config.getLong("automation.period-ticks", 1));
+        maxTransfersPerRun = Math.max(1, config.getInt("automation.max-transfers-per-run", 64));
+        budget = new TickBudget(config.getLong("automation.max-micros-per-run", 500));
+        task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::run, period, period);
+    }
+
+    void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        queue.clear();
+        queued.clear();
+    }
+
+    /**
+     * Queue the transfer of a dropper or hopper that has seen a positive
+     * redstone edge.
+     *
+     * @param opperBlock
+     */
+    void schedule(final Block opperBlock) {
+        UUID world = opperBlock.getWorld().getUID();
+        LongObjectMap<Transfer> transfers = queued.get(world);
+        if (transfers == null) {
+            transfers = new LongObjectMap<>();
+            queued.put(world, transfers);
+        }
+        long key = BlockKey.of(opperBlock);
+        if (transfers.get(key) == null) {
+            Transfer transfer = new Transfer(opperBlock, tick);
+            transfers.put(key, transfer);
+            queue.add(transfer);
+        }
+    }
+
+    /**
+     * Drop the queued transfers of a world that is unloading.
+     *
+     * @param world
+     */
+    void unloadWorld(final World world) {
+        if (queued.remove(world.getUID()) != null) {
+            queue.removeIf(transfer -> transfer.block.getWorld().equals(world));
+        }
+    }
+
+    /**
+     * @return the number of containers waiting to be processed
+     */
+    int size() {
+        return queue.size();
+    }
+
+    private void run() {
+        tick += period;
+        budget.start();
+        int transfers = 0;
+        while (!queue.isEmpty()) {
+            // The queue is in edge order, so overdue droppers are at its head
+            if ((transfers >= maxTransfersPerRun || budget.isExhausted()) && !isOverdue(queue.peek())) {
+                break;
+            }
+            Block opperBlock = queue.poll().block;
+            queued.get(opperBlock.getWorld().getUID()).remove(BlockKey.of(opperBlock));
+            // Containers in chunks that unloaded since the edge are skipped, never loaded
+            if (opperBlock.getWorld().isChunkLoaded(opperBlock.getX() >> 4, opperBlock.getZ() >> 4)) {
+                transfer(opperBlock);
+            }
+            transfers++;
+        }
+    }
+
+    /**
+     * @param transfer
+     * @return true if the transfer is a dropper's that would run after the
+     * dropper ejects an item if left to the next run
+     */
+    private boolean isOverdue(final Transfer transfer) {
+        return tick + period - transfer.tick >= DISPENSE_DELAY_TICKS
+                && transfer.block.getType() == Material.DROPPER;
+    }
+
+    /**
+     * A dropper dumps its contents into the attached Tesseracts and Vaults, a
+     * hopper is filled from them. Only faces recorded in the AdjacencyIndex
+     * are visited, and the container is committed once after all Tesseracts
+     * are served. A sorter dropper routes its contents into its group
+     * instead, and ignores the signs attached to it while the group has
+     * members in indexed chunks.
+     *
+     * @param opperBlock
+     */
+    private static void transfer(final Block opperBlock) {
+        Material type = opperBlock.getType();
+        SorterGroups.Group group = type == Material.DROPPER ? SorterGroups.getInstance().getGroup(opperBlock) : null;
+        int faces = group == null ? AdjacencyIndex.getInstance().get(opperBlock) : 0;
+        if (group == null && faces == 0) {
+            return;
+        }
+        BlockState state = opperBlock.getState();
+        if ((type != Material.DROPPER && type != Material.HOPPER) || !(state instanceof Container)) {
+            return;
+        }
+
+        Container container = (Container) state;
+        Inventory containerSnapshotInventory = container.getSnapshotInventory();
+        boolean changed = group != null && group.sort(containerSnapshotInventory);
+        // Make bulk deposit into each Tesseract
+        for (int i = 0; i < AdjacencyIndex.CARDINAL_FACES.length; i++) {
+            if ((faces & (1 << i)) == 0) {
+                continue;
+            }
+            Block relative = opperBlock.getRelative(AdjacencyIndex.CARDINAL_FACES[i]);
+            SignContents contents = TesseractCache.getInstance().getContents(relative);
+            if (contents instanceof Tesseract) {
+                Tesseract tesseract = (Tesseract) contents;
+                if (type == Material.DROPPER) {
+                    changed |= tesseract.depositAllAndUpdate(containerSnapshotInventory, relative);
+                } else {
+                    changed |= tesseract.fillInventoryAndUpdate(containerSnapshotInventory, relative, false);
+                }
+            } else if (contents instanceof Vault) {
+                Vault vault = (Vault) contents;
+                if (type == Material.DROPPER) {
+                    changed |= vault.depositAllAndUpdate(containerSnapshotInventory, relative);
+                } else {
+                    changed |= vault.fillInventoryAndUpdate(containerSnapshotInventory, relative);
+                }
+            }
+        }
+        if (changed) {
+            container.update(true, true);
+        }
+    }
+
+    private static final class Transfer {
+
+        private final Block block;
+        private final long tick;
+
+        private Transfer(Block block, long tick) {
+            this.block = block;
+            this.tick = tick;
+        }
+    }
+}
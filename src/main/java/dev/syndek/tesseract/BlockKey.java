@@ -0,0 +1,50 @@
+package dev.syndek.tesseract;
+
+import org.bukkit.block.Block;
+
+/**
+ * Packs block and chunk coordinates into primitive long keys. Block keys hold
+ * 26 bits each of X and Z and 12 bits of Y, which covers the full world border
+ * of +/- 30 million blocks. Keys are only unique within one world.
+ */
+final class BlockKey {
+
+    private BlockKey() {
+    }
+
+    static long of(int x, int y, int z) {
+        return ((long) (x & 0x3FFFFFF) << 38) | ((long) (z & 0x3FFFFFF) << 12) | (y & 0xFFF);
+    }
+
+    static long of(Block block) {
+        return of(block.getX(), block.getY(), block.getZ());
+    }
+
+    static int x(long key) {
+        return (int) (key >> 38);
+    }
+
+    static int y(long key) {
+        return (int) (key << 52 >> 52);
+    }
+
+    static int z(long key) {
+        return (int) (key << 26 >> 38);
+    }
+
+    static long chunk(int chunkX, int chunkZ) {
+        return ((long) chunkX << 32) | (chunkZ & 0xFFFFFFFFL);
+    }
+
+    static long chunkOf(long blockKey) {
+        return chunk(x(blockKey) >> 4, z(blockKey) >> 4);
+    }
+
+    static int chunkX(long chunkKey) {
+        return (int) (chunkKey >> 32);
+    }
+
+    static int chunkZ(long chunkKey) {
+        return (int) chunkKey;
+    }
+}
@@ -0,0 +1,112 @@
+package dev.syndek.tesseract;
+
+import java.util.HashMap;
+import java.util.UUID;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
+
+/**
+ * Remembers the decisions of another ProtectionProvider per player for a
+ * short time, so that a player clicking through a row of Tesseracts does not
+ * repeat region queries.
+ *
+ * Decisions are kept per 16x16x16 chunk section, where the provider reports
+ * that no region border crosses the section. Otherwise they fall back to the
+ * exact block position, and the section only remembers that it is divided.
+ * Protection plugins do not announce region or permission changes, so the
+ * time to live bounds how long a stale decision can be used. Entries are
+ * dropped when a player quits.
+ */
+final class CachedProtection implements ProtectionProvider {
+
+    private static final int MAX_ENTRIES_PER_PLAYER = 256;
+
+    private final ProtectionProvider delegate;
+    private final long ttlMillis;
+    private final HashMap<UUID, PlayerDecisions> players = new HashMap<>();
+
+    CachedProtection(ProtectionProvider delegate, long ttlMillis) {
+        this.delegate = delegate;
+        this.ttlMillis = ttlMillis;
+    }
+
+    @Override
+    public boolean canUse(final Player player, final Block block) {
+        if (ttlMillis <= 0) {
+            return delegate.canUse(player, block);
+        }
+        PlayerDecisions decisions = players.get(player.getUniqueId());
+        if (decisions == null) {
+            decisions = new PlayerDecisions();
+            players.put(player.getUniqueId(), decisions);
+        }
+        // Block keys are only unique within a world
+        UUID world = block.getWorld().getUID();
+        if (!world.equals(decisions.world)) {
+            decisions.world = world;
+            decisions.sections.clear();
+            decisions.blocks.clear();
+        }
+
+        long now = System.currentTimeMillis();
+        long sectionKey = BlockKey.of(block.getX() >> 4, block.getY() >> 4, block.getZ() >> 4);
+        Decision section = decisions.sections.get(sectionKey);
+        if (section == null || section.expiresMillis <= now) {
+            section = null;
+        } else if (section.uniform) {
+            return section.allowed;
+        }
+        long key = BlockKey.of(block);
+        Decision decision = decisions.blocks.get(key);
+        if (decision != null && decision.expiresMillis > now) {
+            return decision.allowed;
+        }
+
+        boolean allowed = delegate.canUse(player, block);
+        if (section == null) {
+            section = new Decision(allowed, delegate.isUniformSection(block), now + ttlMillis);
+            put(decisions.sections, sectionKey, section);
+            if (section.uniform) {
+                return allowed;
+            }
+        }
+        put(decisions.blocks, key, new Decision(allowed, false, now + ttlMillis));
+        return allowed;
+    }
+
+    private static void put(final LongObjectMap<Decision> entries, final long key, final Decision decision) {
+        if (entries.size() >= MAX_ENTRIES_PER_PLAYER) {
+            entries.clear();
+        }
+        entries.put(key, decision);
+    }
+
+    void invalidate(final UUID player) {
+        players.remove(player);
+    }
+
+    void clear() {
+        players.clear();
+    }
+
+    private static final class PlayerDecisions {
+
+        private final LongObjectMap<Decision> sections = new LongObjectMap<>();
+        private final LongObjectMap<Decision> blocks = new LongObjectMap<>();
+        private UUID world;
+    }
+
+    private static final class Decision {
+
+        private final boolean allowed;
+        // Whether the decision holds for the whole section
+        private final boolean uniform;
+        private final long expiresMillis;
+
+        private Decision(boolean allowed, boolean uniform, long expiresMillis) {
+            this.allowed = allowed;
+            this.uniform = uniform;
+            this.expiresMillis = expiresMillis;
+        }
+    }
+}
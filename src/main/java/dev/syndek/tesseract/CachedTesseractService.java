@@ -0,0 +1,170 @@
+package dev.syndek.tesseract;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+/**
+ * The TesseractService backed by the TesseractCache. Every change is written
+ * back through SignContents.update, like the changes made by players.
+ */
+final class CachedTesseractService implements TesseractService {
+
+    private static final CachedTesseractService INSTANCE = new CachedTesseractService();
+
+    private CachedTesseractService() {
+    }
+
+    static CachedTesseractService getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public boolean isStorage(final Location location) {
+        return getContents(location) != null;
+    }
+
+    @Override
+    public Material getMaterial(final Location location) {
+        SignContents contents = getContents(location);
+        if (contents == null) {
+            return null;
+        }
+        return contents instanceof Tesseract && !contents.isEmpty() ? ((Tesseract) contents).getMaterial() : Material.AIR;
+    }
+
+    @Override
+    public long query(final Location location) {
+        SignContents contents = getContents(location);
+        if (contents instanceof Tesseract) {
+            return contents.isEmpty() ? 0 : ((Tesseract) contents).getAmount();
+        }
+        return contents == null ? -1 : ((Vault) contents).getTotalAmount();
+    }
+
+    @Override
+    public long query(final Location location, final Material material) {
+        return amountOf(getContents(location), material);
+    }
+
+    @Override
+    public void query(final Location[] locations, final Material material, final long[] amounts) {
+        if (amounts.length < locations.length) {
+            throw new IllegalArgumentException("amounts must hold a result for every location");
+        }
+        for (int i = 0; i < locations.length; i++) {
+            amounts[i] = amountOf(getContents(locations[i]), material);
+        }
+    }
+
+    @Override
+    public long deposit(final Location location, final Material material, final long amount) {
+        if (!isStorable(material) || amount <= 0) {
+            return 0;
+        }
+        return deposit(getBlock(location), material, amount);
+    }
+
+    @Override
+    public long deposit(final Location[] locations, final Material material, final long amount) {
+        if (!isStorable(material)) {
+            return 0;
+        }
+        long stored = 0;
+        for (int i = 0; i < locations.length && stored < amount; i++) {
+            stored += deposit(getBlock(locations[i]), material, amount - stored);
+        }
+        return stored;
+    }
+
+    @Override
+    public long withdraw(final Location location, final Material material, final long amount) {
+        if (!isStorable(material) || amount <= 0) {
+            return 0;
+        }
+        return withdraw(getBlock(location), material, amount);
+    }
+
+    @Override
+    public long withdraw(final Location[] locations, final Material material, final long amount) {
+        if (!isStorable(material)) {
+            return 0;
+        }
+        long taken = 0;
+        for (int i = 0; i < locations.length && taken < amount; i++) {
+            taken += withdraw(getBlock(locations[i]), material, amount - taken);
+        }
+        return taken;
+    }
+
+    private static long deposit(final Block block, final Material material, final long amount) {
+        SignContents contents = TesseractCache.getInstance().getContents(block);
+        long stored;
+        if (contents instanceof Tesseract) {
+            stored = ((Tesseract) contents).store(material, amount);
+        } else if (contents instanceof Vault) {
+            stored = ((Vault) contents).add(material, amount);
+        } else {
+            return 0;
+        }
+        if (stored > 0) {
+            contents.update(block);
+        }
+        return stored;
+    }
+
+    private static long withdraw(final Block block, final Material material, final long amount) {
+        SignContents contents = TesseractCache.getInstance().getContents(block);
+        long taken;
+        if (contents instanceof Tesseract) {
+            taken = ((Tesseract) contents).take(material, amount);
+        } else if (contents instanceof Vault) {
+            taken = ((Vault) contents).take(material, amount);
+        } else {
+            return 0;
+        }
+        if (taken > 0) {
+            contents.update(block);
+        }
+        return taken;
+    }
+
+    private static long amountOf(final SignContents contents, final Material material) {
+        if (contents == null) {
+            return -1;
+        }
+        if (material == null) {
+            return 0;
+        }
+        if (contents instanceof Tesseract) {
+            Tesseract tesseract = (Tesseract) contents;
+            return !tesseract.isEmpty() && tesseract.getMaterial() == material ? tesseract.getAmount() : 0;
+        }
+        return ((Vault) contents).getAmount(material);
+    }
+
+    private static boolean isStorable(final Material material) {
+        return material != null && material != Material.AIR && material.isItem();
+    }
+
+    private static SignContents getContents(final Location location) {
+        return TesseractCache.getInstance().getContents(getBlock(location));
+    }
+
+    /**
+     * @param location
+     * @return the block at the location, or null if its chunk is not loaded
+     */
+    private static Block getBlock(final Location location) {
+        if (!Bukkit.isPrimaryThread()) {
+            throw new IllegalStateException("TesseractService must be used from the main thread");
+        }
+        World world = location == null ? null : location.getWorld();
+        if (world == null || !world.isChunkLoaded(location.getBlockX() >> 4, location.getBlockZ() >> 4)) {
+            return null;
+        }
+        return world.getBlockAt(location.getBlockX(), location.getBlockY(), location.getBlockZ());
+    }
+}
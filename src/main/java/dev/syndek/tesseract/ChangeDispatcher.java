@@ -0,0 +1,112 @@
+package dev.syndek.tesseract;
+
+import java.util.Arrays;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Collects the changes of Tesseracts and Vaults during a tick, and fires them
+ * as one TesseractChangeEvent at the next tick. Changes are recorded at the
+ * same points as the Journal records them.
+ *
+ * Whether the event has listeners is checked once per tick, so recording a
+ * change costs a single field read while nobody listens.
+ */
+final class ChangeDispatcher {
+
+    private static final ChangeDispatcher INSTANCE = new ChangeDispatcher();
+    private static final int INITIAL_CAPACITY = 64;
+
+    private Plugin plugin;
+    private BukkitTask task;
+    private boolean collecting;
+
+    private World[] worlds = new World[INITIAL_CAPACITY];
+    private long[] keys = new long[INITIAL_CAPACITY];
+    private Material[] materials = new Material[INITIAL_CAPACITY];
+    private long[] oldAmounts = new long[INITIAL_CAPACITY];
+    private long[] newAmounts = new long[INITIAL_CAPACITY];
+    private int count;
+
+    private ChangeDispatcher() {
+    }
+
+    static ChangeDispatcher getInstance() {
+        return INSTANCE;
+    }
+
+    void start(final Plugin plugin) {
+        this.plugin = plugin;
+        collecting = hasListeners();
+        task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::dispatch, 1, 1);
+    }
+
+    void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        collecting = false;
+        clear();
+    }
+
+    /**
+     * Record a change of the amount of a material in a Tesseract or Vault.
+     *
+     * @param signBlock
+     * @param material
+     * @param oldAmount
+     * @param newAmount
+     */
+    void record(final Block signBlock, final Material material, final long oldAmount, final long newAmount) {
+        if (!collecting) {
+            return;
+        }
+        if (count == keys.length) {
+            int capacity = count * 2;
+            worlds = Arrays.copyOf(worlds, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+            materials = Arrays.copyOf(materials, capacity);
+            oldAmounts = Arrays.copyOf(oldAmounts, capacity);
+            newAmounts = Arrays.copyOf(newAmounts, capacity);
+        }
+        worlds[count] = signBlock.getWorld();
+        keys[count] = BlockKey.of(signBlock);
+        materials[count] = material;
+        oldAmounts[count] = oldAmount;
+        newAmounts[count] = newAmount;
+        count++;
+    }
+
+    /**
+     * @return the number of changes waiting to be dispatched
+     */
+    int size() {
+        return count;
+    }
+
+    private void dispatch() {
+        if (count > 0) {
+            // Listeners may keep the event, so it gets its own copy of the batch
+            TesseractChangeEvent event = new TesseractChangeEvent(count,
+                    Arrays.copyOf(worlds, count), Arrays.copyOf(keys, count), Arrays.copyOf(materials, count),
+                    Arrays.copyOf(oldAmounts, count), Arrays.copyOf(newAmounts, count));
+            clear();
+            plugin.getServer().getPluginManager().callEvent(event);
+        }
+        collecting = hasListeners();
+    }
+
+    private void clear() {
+        Arrays.fill(worlds, 0, count, null);
+        Arrays.fill(materials, 0, count, null);
+        count = 0;
+    }
+
+    private static boolean hasListeners() {
+        return TesseractChangeEvent.getHandlerList().getRegisteredListeners().length > 0;
+    }
+}
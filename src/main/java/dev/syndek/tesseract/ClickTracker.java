@@ -0,0 +1,125 @@
+package dev.syndek.tesseract;
+
+import java.util.HashMap;
+import java.util.UUID;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
+import org.bukkit.event.block.Action;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Per-player click state, keyed by UUID so that no Player object outlives its
+ * session. Each player has one mutable entry of primitive fields, which is
+ * dropped when the player quits.
+ *
+ * Holding a mouse button fires several interactions per tick, and both hands
+ * may fire for the same click. Only the first interaction of a player with a
+ * block per tick and action is handled; the others are merged into it. Ticks
+ * are counted by a task instead of being derived from the wall clock.
+ */
+final class ClickTracker {
+
+    private static final ClickTracker INSTANCE = new ClickTracker();
+    private static final long DOUBLE_CLICK_MAX_MILLIS = 500;
+
+    private final HashMap<UUID, ClickState> players = new HashMap<>();
+    private long tick;
+    private BukkitTask task;
+
+    private ClickTracker() {
+    }
+
+    static ClickTracker getInstance() {
+        return INSTANCE;
+    }
+
+    void start(final Plugin plugin) {
+        task = plugin.getServer().getScheduler().runTaskTimer(plugin, () -> tick++, 1, 1);
+    }
+
+    void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        players.clear();
+    }
+
+    /**
+     * Records an interaction, unless the player already interacted with the
+     * same block in the same way during the current tick.
+     *
+     * @param player
+     * @param block
+     * @param action
+     * @return true if the interaction repeats one already handled in this tick
+     */
+    boolean isRepeat(final Player player, final Block block, final Action action) {
+        ClickState state = getState(player);
+        long blockKey = BlockKey.of(block);
+        UUID world = block.getWorld().getUID();
+        if (state.tick == tick && state.blockKey == blockKey && state.action == action.ordinal() && world.equals(state.world)) {
+            return true;
+        }
+        state.tick = tick;
+        state.blockKey = blockKey;
+        state.action = action.ordinal();
+        state.world = world;
+        return false;
+    }
+
+    /**
+     * @param player
+     * @param action
+     * @return true if the player's previous click with the same mouse button
+     * was less than 500ms ago
+     */
+    boolean isDoubleClick(final Player player, final Action action) {
+        ClickState state = players.get(player.getUniqueId());
+        if (state == null) {
+            return false;
+        }
+        long previous = action == Action.LEFT_CLICK_BLOCK ? state.leftClickMillis : state.rightClickMillis;
+        return System.currentTimeMillis() - previous < DOUBLE_CLICK_MAX_MILLIS;
+    }
+
+    void rememberClick(final Player player, final Action action) {
+        ClickState state = getState(player);
+        if (action == Action.LEFT_CLICK_BLOCK) {
+            state.leftClickMillis = System.currentTimeMillis();
+        } else {
+            state.rightClickMillis = System.currentTimeMillis();
+        }
+    }
+
+    void forget(final UUID player) {
+        players.remove(player);
+    }
+
+    /**
+     * @return the number of players with click state
+     */
+    int size() {
+        return players.size();
+    }
+
+    private ClickState getState(final Player player) {
+        ClickState state = players.get(player.getUniqueId());
+        if (state == null) {
+            state = new ClickState();
+            players.put(player.getUniqueId(), state);
+        }
+        return state;
+    }
+
+    private static final class ClickState {
+
+        private long tick = -1;
+        private long blockKey;
+        private int action;
+        private UUID world;
+        private long rightClickMillis;
+        private long leftClickMillis;
+    }
+}
@@ -0,0 +1,94 @@
+package dev.syndek.tesseract;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Call counts and latencies of a single event handler. Latencies are kept in
+ * a log2 histogram: bucket i counts calls that took [2^(i-1), 2^i)
+ * nanoseconds. Calls rejected before doing any work are only counted, never
+ * timed. All counters are lock-free, so recording never blocks and a report
+ * may be taken from any thread.
+ */
+final class HandlerMetrics {
+
+    private static final int BUCKETS = 40;
+
+    private final String name;
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder rejects = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+    private final LongAdder[] histogram = new LongAdder[BUCKETS];
+
+    HandlerMetrics(final String name) {
+        this.name = name;
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records a call that returned before doing any work, without reading the
+     * clock.
+     */
+    void reject() {
+        if (Metrics.getInstance().isEnabled()) {
+            rejects.increment();
+        }
+    }
+
+    /**
+     * Records a completed call.
+     *
+     * @param startNanos the value of Metrics.start() when the call began
+     */
+    void record(final long startNanos) {
+        if (startNanos == 0) {
+            return;
+        }
+        long nanos = Math.max(0, System.nanoTime() - startNanos);
+        calls.increment();
+        totalNanos.add(nanos);
+        maxNanos.accumulate(nanos);
+        histogram[Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(nanos))].increment();
+    }
+
+    void reset() {
+        calls.reset();
+        rejects.reset();
+        totalNanos.reset();
+        maxNanos.reset();
+        for (LongAdder bucket : histogram) {
+            bucket.reset();
+        }
+    }
+
+    /**
+     * @return a one-line summary. Percentiles are the upper bound of the
+     * histogram bucket they fall into.
+     */
+    String summary() {
+        long count = calls.sum();
+        if (count == 0) {
+            return name + ": no calls, " + rejects.sum() + " rejected";
+        }
+        long total = totalNanos.sum();
+        return name + ": " + count + " calls, " + rejects.sum() + " rejected, "
+                + total / 1000000 + " ms total, avg " + total / count + " ns, p50 < "
+                + percentile(count, 0.5) + " ns, p99 < " + percentile(count, 0.99)
+                + " ns, max " + maxNanos.get() + " ns";
+    }
+
+    private long percentile(final long count, final double fraction) {
+        long threshold = (long) Math.ceil(count * fraction);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram[i].sum();
+            if (seen >= threshold) {
+                return 1L << i;
+            }
+        }
+        return 1L << (BUCKETS - 1);
+    }
+}
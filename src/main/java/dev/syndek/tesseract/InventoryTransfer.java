@@ -0,0 +1,78 @@
+package dev.syndek.tesseract;
+
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Plans and applies bulk item moves against an inventory's contents array.
+ * Callers read the contents once, apply any number of moves to the array and
+ * commit it with a single setContents call, instead of reading and writing the
+ * inventory slot by slot.
+ *
+ * Only stacks without item meta are touched, since the meta would be lost in
+ * a Tesseract.
+ */
+final class InventoryTransfer {
+
+    private InventoryTransfer() {
+    }
+
+    /**
+     * Removes up to the given number of items of a material from the
+     * contents, in slot order. Emptied slots are set to null.
+     *
+     * @param contents
+     * @param material
+     * @param maxAmount
+     * @return the number of items removed
+     */
+    static long remove(final ItemStack[] contents, final Material material, final long maxAmount) {
+        long removed = 0;
+        for (int i = 0; i < contents.length && removed < maxAmount; i++) {
+            ItemStack stack = contents[i];
+            if (!isCompatible(stack, material)) {
+                continue;
+            }
+            int stackAmount = stack.getAmount();
+            long take = Math.min(maxAmount - removed, stackAmount);
+            if (take == stackAmount) {
+                contents[i] = null;
+            } else {
+                stack.setAmount(stackAmount - (int) take);
+            }
+            removed += take;
+        }
+        return removed;
+    }
+
+    /**
+     * Adds up to the given number of items of a material to the contents, in
+     * slot order, topping up existing stacks and filling empty slots.
+     *
+     * @param contents
+     * @param material
+     * @param maxAmount
+     * @return the number of items added
+     */
+    static long add(final ItemStack[] contents, final Material material, final long maxAmount) {
+        int stackSize = material.getMaxStackSize();
+        long added = 0;
+        for (int i = 0; i < contents.length && added < maxAmount; i++) {
+            ItemStack stack = contents[i];
+            if (stack == null || stack.getType() == Material.AIR) {
+                int put = (int) Math.min(maxAmount - added, stackSize);
+                contents[i] = new ItemStack(material, put);
+                added += put;
+            } else if (isCompatible(stack, material) && stack.getAmount() < stackSize) {
+                int put = (int) Math.min(maxAmount - added, stackSize - stack.getAmount());
+                stack.setAmount(stack.getAmount() + put);
+                added += put;
+            }
+        }
+        return added;
+    }
+
+    private static boolean isCompatible(final ItemStack stack, final Material material) {
+        return stack != null && stack.getType() == material && !stack.hasItemMeta();
+    }
+}
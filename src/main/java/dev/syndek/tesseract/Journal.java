@@ -0,0 +1,476 @@
+package dev.syndek.tesseract;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Write-ahead journal of every change to the contents of a Tesseract or Vault.
+ * The main thread only encodes records into an in-memory buffer. A background
+ * thread writes the buffer to the journal file through a FileChannel and
+ * forces it to disk every few milliseconds, so many changes share one commit
+ * and clicks never wait for I/O.
+ *
+ * The journal is rotated whenever the main world is saved: the current file
+ * becomes the previous one, and the file before that is deleted, since every
+ * change it holds has reached a world save by then. At startup both files are
+ * replayed into the expected state of each sign, which is compared with the
+ * sign when its chunk is indexed. Mismatches are logged, and corrected if
+ * configured.
+ *
+ * File layout: 4 bytes magic "TSJ1", then records of
+ * (1) 2 bytes: payload length
+ * (2) 4 bytes: CRC32 of the payload
+ * (3) payload: 1 byte type, 16 bytes world UUID, 8 bytes block key, 8 bytes
+ * signed item delta, 8 bytes resulting amount, 1 byte name length, material
+ * name (ASCII)
+ *
+ * A torn record at the end of a file is ignored.
+ */
+final class Journal {
+
+    static final byte TYPE_TESSERACT = 0;
+    static final byte TYPE_VAULT = 1;
+
+    private static final Journal INSTANCE = new Journal();
+    private static final byte[] MAGIC = {'T', 'S', 'J', '1'};
+    private static final int FIXED_PAYLOAD_LENGTH = 1 + 16 + 8 + 8 + 8 + 1;
+    private static final int RECORD_HEADER_LENGTH = 2 + 4;
+
+    private final Object lock = new Object();
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+    private ByteBuffer committing = ByteBuffer.allocate(64 * 1024);
+    private int rotateMark = -1;
+
+    private volatile boolean running;
+    private Thread writer;
+    private long commitMillis;
+    private Path current;
+    private Path previous;
+    private FileChannel channel;
+    private Logger logger;
+
+    private boolean applyOnReplay;
+    private HashMap<UUID, LongObjectMap<LongObjectMap<Expected>>> expected;
+
+    private Journal() {
+    }
+
+    static Journal getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Replays the journal left by the previous run, then starts the writer.
+     * Must be called before any chunk is indexed.
+     *
+     * @param plugin
+     */
+    void start(final Plugin plugin) {
+        if (!plugin.getConfig().getBoolean("journal.enabled", true)) {
+            return;
+        }
+        logger = plugin.getLogger();
+        commitMillis = Math.max(1, plugin.getConfig().getLong("journal.commit-millis", 50));
+        applyOnReplay = plugin.getConfig().getBoolean("journal.apply-on-replay", false);
+        File directory = new File(plugin.getDataFolder(), "journal");
+        current = new File(directory, "current.bin").toPath();
+        previous = new File(directory, "previous.bin").toPath();
+        try {
+            Files.createDirectories(directory.toPath());
+            replay();
+            channel = open(current);
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Could not open the Tesseract journal, changes will not be journaled", e);
+            return;
+        }
+        running = true;
+        writer = new Thread(this::writeLoop, "Tesseract journal writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Stops the writer, then commits every pending record on the calling
+     * thread. The writer is woken through the lock rather than interrupted,
+     * since an interrupt during I/O closes the channel.
+     */
+    void stop() {
+        if (!running) {
+            return;
+        }
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+        boolean interrupted = false;
+        while (writer.isAlive()) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        writer = null;
+        try {
+            commit();
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Could not write the Tesseract journal", e);
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not close the Tesseract journal", e);
+        }
+        expected = null;
+    }
+
+    boolean isEnabled() {
+        return running;
+    }
+
+    /**
+     * Journal a change of the amount of one material in a Tesseract or Vault.
+     *
+     * @param signBlock
+     * @param type TYPE_TESSERACT or TYPE_VAULT
+     * @param material
+     * @param delta the signed change of the amount
+     * @param amount the resulting amount
+     */
+    void record(final Block signBlock, final byte type, final Material material, final long delta, final long amount) {
+        if (!running) {
+            return;
+        }
+        UUID world = signBlock.getWorld().getUID();
+        byte[] name = TesseractStorage.nameBytes(material);
+        int payloadLength = FIXED_PAYLOAD_LENGTH + name.length;
+        synchronized (lock) {
+            ensureCapacity(RECORD_HEADER_LENGTH + payloadLength);
+            ByteBuffer out = buffer;
+            int start = out.position();
+            out.putShort((short) payloadLength);
+            out.putInt(0);
+            out.put(type);
+            out.putLong(world.getMostSignificantBits());
+            out.putLong(world.getLeastSignificantBits());
+            out.putLong(BlockKey.of(signBlock));
+            out.putLong(delta);
+            out.putLong(amount);
+            out.put((byte) name.length);
+            out.put(name);
+            crc.reset();
+            crc.update(out.array(), start + RECORD_HEADER_LENGTH, payloadLength);
+            out.putInt(start + 2, (int) crc.getValue());
+        }
+    }
+
+    /**
+     * Start a new journal file. Every record journaled so far will be
+     * discarded with the next rotation. Called when the main world is saved.
+     */
+    void rotate() {
+        if (!running) {
+            return;
+        }
+        synchronized (lock) {
+            rotateMark = buffer.position();
+        }
+    }
+
+    /**
+     * Compare the Tesseracts and Vaults of a freshly indexed chunk with the
+     * state recorded in the journal of the previous run.
+     *
+     * @param world
+     * @param chunkX
+     * @param chunkZ
+     * @param contents the chunk's partition of the TesseractCache
+     */
+    void reconcile(final World world, final int chunkX, final int chunkZ, final LongObjectMap<SignContents> contents) {
+        if (expected == null) {
+            return;
+        }
+        LongObjectMap<LongObjectMap<Expected>> chunks = expected.get(world.getUID());
+        LongObjectMap<Expected> signs = chunks == null ? null : chunks.remove(BlockKey.chunk(chunkX, chunkZ));
+        if (signs == null) {
+            return;
+        }
+        signs.forEach((key, state) -> reconcile(world, key, contents.get(key), state));
+        if (chunks.isEmpty()) {
+            expected.remove(world.getUID());
+            if (expected.isEmpty()) {
+                expected = null;
+            }
+        }
+    }
+
+    /**
+     * Compare the expected state of a single sign with its decoded contents,
+     * for a sign decoded before its chunk is indexed. The sign is then left
+     * out when the chunk is reconciled.
+     *
+     * @param world
+     * @param key
+     * @param contents the decoded contents, or null if the sign is no storage sign
+     */
+    void reconcile(final World world, final long key, final SignContents contents) {
+        if (expected == null) {
+            return;
+        }
+        LongObjectMap<LongObjectMap<Expected>> chunks = expected.get(world.getUID());
+        LongObjectMap<Expected> signs = chunks == null ? null : chunks.get(BlockKey.chunkOf(key));
+        Expected state = signs == null ? null : signs.remove(key);
+        if (state != null) {
+            reconcile(world, key, contents, state);
+        }
+    }
+
+    private void reconcile(final World world, final long key, final SignContents contents, final Expected state) {
+        String position = world.getName() + " " + BlockKey.x(key) + "," + BlockKey.y(key) + "," + BlockKey.z(key);
+        // Emptied signs may since have been broken legitimately
+        if (contents == null && state.isEmpty()) {
+            return;
+        }
+        if (contents == null || (contents instanceof Vault) != (state.type == TYPE_VAULT)) {
+            logger.warning("Journal: the " + (state.type == TYPE_VAULT ? "Vault" : "Tesseract") + " at " + position
+                    + " no longer exists, it should hold " + state.amounts);
+            return;
+        }
+        boolean corrected = false;
+        if (contents instanceof Tesseract) {
+            Tesseract tesseract = (Tesseract) contents;
+            Map.Entry<Material, Long> last = state.amounts.isEmpty() ? null : state.amounts.entrySet().iterator().next();
+            Material material = last == null ? Material.AIR : last.getKey();
+            long amount = last == null ? 0 : last.getValue();
+            boolean matches = tesseract.isEmpty() ? amount == 0 : tesseract.getMaterial() == material && tesseract.getAmount() == amount;
+            if (!matches) {
+                logger.warning("Journal: the Tesseract at " + position + " holds " + tesseract.getAmount() + " "
+                        + tesseract.getMaterial() + ", the journal recorded " + amount + " " + material);
+                if (applyOnReplay) {
+                    tesseract.setContents(material, amount);
+                    corrected = true;
+                }
+            }
+        } else {
+            Vault vault = (Vault) contents;
+            for (Map.Entry<Material, Long> entry : state.amounts.entrySet()) {
+                long amount = vault.getAmount(entry.getKey());
+                if (amount != entry.getValue()) {
+                    logger.warning("Journal: the Vault at " + position + " holds " + amount + " " + entry.getKey()
+                            + ", the journal recorded " + entry.getValue());
+                    if (applyOnReplay) {
+                        vault.setAmount(entry.getKey(), entry.getValue());
+                        corrected = true;
+                    }
+                }
+            }
+        }
+        if (corrected) {
+            contents.update(world.getBlockAt(BlockKey.x(key), BlockKey.y(key), BlockKey.z(key)));
+        }
+    }
+
+    private void ensureCapacity(final int length) {
+        if (buffer.remaining() >= length) {
+            return;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+    }
+
+    private void writeLoop() {
+        while (true) {
+            synchronized (lock) {
+                if (running) {
+                    try {
+                        lock.wait(commitMillis);
+                    } catch (InterruptedException e) {
+                        // Not used to stop the writer; stop() commits what is left
+                        return;
+                    }
+                }
+                if (!running) {
+                    // stop() commits the remaining records after joining
+                    return;
+                }
+            }
+            try {
+                commit();
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Could not write the Tesseract journal", e);
+            }
+        }
+    }
+
+    private void commit() throws IOException {
+        ByteBuffer batch;
+        int mark;
+        synchronized (lock) {
+            batch = buffer;
+            buffer = committing;
+            committing = batch;
+            mark = rotateMark;
+            rotateMark = -1;
+        }
+        batch.flip();
+        try {
+            if (mark >= 0) {
+                int end = batch.limit();
+                batch.limit(mark);
+                write(batch);
+                channel.close();
+                Files.move(current, previous, StandardCopyOption.REPLACE_EXISTING);
+                channel = open(current);
+                batch.limit(end);
+            }
+            write(batch);
+        } finally {
+            // A failed batch is dropped, as it may have been written in part
+            batch.clear();
+        }
+    }
+
+    private void write(final ByteBuffer batch) throws IOException {
+        if (!batch.hasRemaining()) {
+            return;
+        }
+        while (batch.hasRemaining()) {
+            channel.write(batch);
+        }
+        channel.force(false);
+    }
+
+    private static FileChannel open(final Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (channel.size() == 0) {
+            channel.write(ByteBuffer.wrap(MAGIC));
+        }
+        return channel;
+    }
+
+    private void replay() throws IOException {
+        HashMap<UUID, LongObjectMap<LongObjectMap<Expected>>> states = new HashMap<>();
+        int records = replay(previous, states) + replay(current, states);
+        if (records > 0) {
+            logger.info("Replayed " + records + " journal records");
+            expected = states;
+        }
+    }
+
+    private int replay(final Path path, final HashMap<UUID, LongObjectMap<LongObjectMap<Expected>>> states) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(path));
+        if (in.remaining() < MAGIC.length || in.getInt() != ByteBuffer.wrap(MAGIC).getInt()) {
+            logger.warning("Ignoring " + path + ", it is not a Tesseract journal");
+            return 0;
+        }
+        int records = 0;
+        CRC32 checksum = new CRC32();
+        while (in.remaining() >= RECORD_HEADER_LENGTH) {
+            int payloadLength = in.getShort() & 0xFFFF;
+            int expectedCrc = in.getInt();
+            if (payloadLength < FIXED_PAYLOAD_LENGTH || in.remaining() < payloadLength) {
+                break;
+            }
+            checksum.reset();
+            checksum.update(in.array(), in.position(), payloadLength);
+            if ((int) checksum.getValue() != expectedCrc) {
+                break;
+            }
+            byte type = in.get();
+            UUID world = new UUID(in.getLong(), in.getLong());
+            long key = in.getLong();
+            in.getLong(); // The delta is implied by the resulting amounts
+            long amount = in.getLong();
+            byte[] name = new byte[in.get() & 0xFF];
+            in.get(name);
+            records++;
+            Material material = Material.getMaterial(new String(name, StandardCharsets.US_ASCII));
+            if (material != null) {
+                expect(states, world, key, type).set(material, amount);
+            }
+        }
+        return records;
+    }
+
+    private static Expected expect(final HashMap<UUID, LongObjectMap<LongObjectMap<Expected>>> states,
+                                   final UUID world, final long key, final byte type) {
+        LongObjectMap<LongObjectMap<Expected>> chunks = states.get(world);
+        if (chunks == null) {
+            chunks = new LongObjectMap<>();
+            states.put(world, chunks);
+        }
+        long chunkKey = BlockKey.chunkOf(key);
+        LongObjectMap<Expected> signs = chunks.get(chunkKey);
+        if (signs == null) {
+            signs = new LongObjectMap<>();
+            chunks.put(chunkKey, signs);
+        }
+        Expected state = signs.get(key);
+        if (state == null || state.type != type) {
+            state = new Expected(type);
+            signs.put(key, state);
+        }
+        return state;
+    }
+
+    /**
+     * The last journaled amount of each material of a sign. Materials a
+     * Tesseract held before are dropped once their amount reaches 0.
+     */
+    private static final class Expected {
+
+        private final byte type;
+        private final EnumMap<Material, Long> amounts = new EnumMap<>(Material.class);
+
+        private Expected(byte type) {
+            this.type = type;
+        }
+
+        private void set(Material material, long amount) {
+            if (type == TYPE_TESSERACT && amount == 0) {
+                amounts.remove(material);
+            } else {
+                amounts.put(material, amount);
+            }
+        }
+
+        /**
+         * @return true if no material has a non-zero amount
+         */
+        private boolean isEmpty() {
+            for (long amount : amounts.values()) {
+                if (amount != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package dev.syndek.tesseract;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Material;
+import org.bukkit.material.MaterialData;
+
+/**
+ * Dense lookup table from pre-1.13 item IDs and damage values to modern
+ * materials, used to read V1 and V2 Tesseracts. The table is built on the
+ * first legacy lookup, after which converting a legacy sign is an array
+ * access.
+ *
+ * Damage values 0-15 are resolved exactly. Any other damage value, and any
+ * combination that has no modern equivalent, falls back to the material of
+ * damage value 0. For tools and armor the damage is durability, which is lost
+ * in a Tesseract anyway.
+ */
+final class LegacyMaterials {
+
+    private static final int DAMAGE_VALUES = 16;
+
+    private static Material[] table;
+
+    private LegacyMaterials() {
+    }
+
+    /**
+     * Converts the legacy item-ID/damage encoding to the modern Material
+     * encoding. Must be called from the main server thread.
+     *
+     * @param legacyItemId
+     * @param legacyDamage
+     * @return the corresponding material or null if the item ID is unknown
+     */
+    static Material convert(long legacyItemId, long legacyDamage) {
+        Material[] lookup = table;
+        if (lookup == null) {
+            lookup = table = build();
+        }
+        if (legacyItemId < 0 || legacyItemId >= lookup.length / DAMAGE_VALUES) {
+            return null;
+        }
+        int base = (int) legacyItemId * DAMAGE_VALUES;
+        Material material = null;
+        if (legacyDamage >= 0 && legacyDamage < DAMAGE_VALUES) {
+            material = lookup[base + (int) legacyDamage];
+        }
+        return material != null ? material : lookup[base];
+    }
+
+    @SuppressWarnings("deprecation")
+    private static Material[] build() {
+        long start = System.nanoTime();
+        Material[] materials = Material.values();
+
+        int maxId = -1;
+        for (Material material : materials) {
+            if (material.isLegacy()) {
+                maxId = Math.max(maxId, material.getId());
+            }
+        }
+
+        Material[] lookup = new Material[(maxId + 1) * DAMAGE_VALUES];
+        int mapped = 0;
+        for (Material material : materials) {
+            if (!material.isLegacy()) {
+                continue;
+            }
+            int base = material.getId() * DAMAGE_VALUES;
+            if (lookup[base] != null) {
+                continue;
+            }
+            for (int damage = 0; damage < DAMAGE_VALUES; damage++) {
+                Material modern = Bukkit.getUnsafe().fromLegacy(new MaterialData(material, (byte) damage));
+                // Leave unmapped damage values empty so that they fall back to damage value 0
+                if (damage == 0 || (modern != null && modern != Material.AIR)) {
+                    lookup[base + damage] = modern;
+                    mapped++;
+                }
+            }
+        }
+
+        TesseractPlugin plugin = TesseractPlugin.instance();
+        if (plugin != null) {
+            plugin.getLogger().info("Built legacy material table with " + mapped + " entries in "
+                    + (System.nanoTime() - start) / 1000000 + " ms");
+        }
+        return lookup;
+    }
+}
@@ -0,0 +1,230 @@
+package dev.syndek.tesseract;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import org.bukkit.ChatColor;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Sign;
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Rewrites Tesseracts in the V1, V2 and V3 text formats, and Tesseracts
+ * without a binary record, to the current format. Once rewritten, a sign is
+ * decoded from its binary record and never reaches the legacy decoders or the
+ * legacy material conversion again.
+ *
+ * The upgrader visits the loaded chunks, and every chunk that loads while it
+ * runs, on the main thread within a fixed time budget per tick. Candidates
+ * are taken from the TesseractCache, so no sign is decoded twice. A dry run
+ * only counts the candidates.
+ *
+ * A run started by command ends when all queued chunks have been visited. In
+ * continuous mode the upgrader runs from startup until the plugin is
+ * disabled, and upgrades every chunk as it loads.
+ */
+final class LegacyUpgrader {
+
+    private static final LegacyUpgrader INSTANCE = new LegacyUpgrader();
+
+    private final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+    private TickBudget budget;
+    private BukkitTask task;
+    private CommandSender requester;
+    private boolean dryRun;
+    private boolean continuous;
+
+    // Candidates of the current chunk
+    private World candidateWorld;
+    private long[] candidateKeys = new long[16];
+    private Tesseract[] candidates = new Tesseract[16];
+    private int candidateCount;
+    private int candidateIndex;
+
+    // Progress
+    private long chunksQueued;
+    private long chunksVisited;
+    private final long[] found = new long[TesseractCodec.VERSION_CURRENT + 1];
+    private final long[] upgraded = new long[TesseractCodec.VERSION_CURRENT + 1];
+
+    private LegacyUpgrader() {
+    }
+
+    static LegacyUpgrader getInstance() {
+        return INSTANCE;
+    }
+
+    boolean isRunning() {
+        return task != null;
+    }
+
+    boolean isContinuous() {
+        return continuous;
+    }
+
+    /**
+     * Starts an upgrade of all currently loaded chunks.
+     *
+     * @param plugin
+     * @param requester receives the final report, or null
+     * @param dryRun only count the signs that would be upgraded
+     * @param continuous keep running and upgrade every chunk as it loads
+     * @return false if the upgrader is already running
+     */
+    boolean start(final Plugin plugin, final CommandSender requester, final boolean dryRun, final boolean continuous) {
+        if (isRunning()) {
+            return false;
+        }
+        this.requester = requester;
+        this.dryRun = dryRun;
+        this.continuous = continuous;
+        budget = new TickBudget(plugin.getConfig().getLong("upgrade.max-micros-per-tick", 500));
+        chunksQueued = 0;
+        chunksVisited = 0;
+        Arrays.fill(found, 0);
+        Arrays.fill(upgraded, 0);
+        candidateCount = 0;
+        candidateIndex = 0;
+        for (World world : plugin.getServer().getWorlds()) {
+            for (Chunk chunk : world.getLoadedChunks()) {
+                chunks.add(chunk);
+                chunksQueued++;
+            }
+        }
+        task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::run, 1, 1);
+        return true;
+    }
+
+    /**
+     * Aborts the upgrader. Signs rewritten so far stay rewritten.
+     */
+    void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        chunks.clear();
+        Arrays.fill(candidates, null);
+        candidateCount = 0;
+        candidateWorld = null;
+        requester = null;
+        continuous = false;
+    }
+
+    /**
+     * Queue a freshly loaded chunk while the upgrader runs.
+     *
+     * @param chunk
+     */
+    void queueChunk(final Chunk chunk) {
+        if (task != null) {
+            chunks.add(chunk);
+            chunksQueued++;
+        }
+    }
+
+    /**
+     * @return a progress message for the running or last upgrade
+     */
+    String progress() {
+        String counts = dryRun ? " legacy signs found: " + counts(found) : " legacy signs upgraded: " + counts(upgraded);
+        return (dryRun ? "Upgrade dry run: " : "Upgrade: ") + chunksVisited + " of " + chunksQueued + " chunks," + counts;
+    }
+
+    private static String counts(final long[] versions) {
+        long total = 0;
+        for (long count : versions) {
+            total += count;
+        }
+        return total + " (V1: " + versions[TesseractCodec.VERSION_1]
+                + ", V2: " + versions[TesseractCodec.VERSION_2]
+                + ", V3: " + versions[TesseractCodec.VERSION_3]
+                + ", V4 without record: " + versions[TesseractCodec.VERSION_4] + ")";
+    }
+
+    private void run() {
+        budget.start();
+        while (!budget.isExhausted()) {
+            if (candidateIndex < candidateCount) {
+                int i = candidateIndex++;
+                upgrade(candidateKeys[i], candidates[i]);
+                candidates[i] = null;
+                continue;
+            }
+            Chunk chunk = chunks.poll();
+            if (chunk == null) {
+                if (!continuous) {
+                    finish();
+                }
+                return;
+            }
+            chunksVisited++;
+            // Never load chunks that unloaded since they were queued
+            if (chunk.isLoaded()) {
+                collect(chunk);
+            }
+        }
+    }
+
+    private void collect(final Chunk chunk) {
+        candidateWorld = chunk.getWorld();
+        candidateCount = 0;
+        candidateIndex = 0;
+        TesseractCache.getInstance().forEachInChunk(chunk, (key, contents) -> {
+            if (!(contents instanceof Tesseract)) {
+                return;
+            }
+            Tesseract tesseract = (Tesseract) contents;
+            if (tesseract.getFormatVersion() == TesseractCodec.VERSION_CURRENT && tesseract.isPersisted()) {
+                return;
+            }
+            found[tesseract.getFormatVersion()]++;
+            if (dryRun) {
+                return;
+            }
+            if (candidateCount == candidates.length) {
+                candidateKeys = Arrays.copyOf(candidateKeys, candidateCount * 2);
+                candidates = Arrays.copyOf(candidates, candidateCount * 2);
+            }
+            candidateKeys[candidateCount] = key;
+            candidates[candidateCount] = tesseract;
+            candidateCount++;
+        });
+    }
+
+    private void upgrade(final long key, final Tesseract tesseract) {
+        World world = candidateWorld;
+        if (!world.isChunkLoaded(BlockKey.x(key) >> 4, BlockKey.z(key) >> 4)) {
+            return;
+        }
+        // Skip signs that changed since the chunk was visited. A lookup through
+        // get() would migrate the sign on its own and write it twice.
+        if (TesseractCache.getInstance().peek(world, key) != tesseract) {
+            return;
+        }
+        int version = tesseract.getFormatVersion();
+        if (version == TesseractCodec.VERSION_CURRENT && tesseract.isPersisted()) {
+            return;
+        }
+        Block block = world.getBlockAt(BlockKey.x(key), BlockKey.y(key), BlockKey.z(key));
+        // Signs that disappeared are dropped from the cache on their next lookup
+        BlockState state = block.getState();
+        if (state instanceof Sign) {
+            tesseract.update((Sign) state);
+            upgraded[version]++;
+        }
+    }
+
+    private void finish() {
+        CommandSender sender = requester;
+        String report = progress();
+        stop();
+        if (sender != null) {
+            sender.sendMessage(ChatColor.GRAY + "Tesseract upgrade finished. " + report);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package dev.syndek.tesseract;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * An open-addressing hash map with primitive long keys. Avoids boxing the
+ * packed block and chunk keys used throughout the plugin. Null values are not
+ * permitted, since an empty table slot is marked by a null value.
+ *
+ * Not thread-safe. Must not be modified while being visited.
+ *
+ * @param <V>
+ */
+final class LongObjectMap<V> {
+
+    private static final int MIN_CAPACITY = 4;
+
+    private long[] keys;
+    private Object[] values;
+    private int mask;
+    private int size;
+
+    LongObjectMap() {
+        this(MIN_CAPACITY);
+    }
+
+    LongObjectMap(int expectedSize) {
+        allocate(tableSizeFor(Math.max(MIN_CAPACITY, expectedSize * 2)));
+    }
+
+    /**
+     * @param key
+     * @return the value mapped to the key, or null if there is none
+     */
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        int i = index(key);
+        Object value;
+        while ((value = values[i]) != null) {
+            if (keys[i] == key) {
+                return (V) value;
+            }
+            i = (i + 1) & mask;
+        }
+        return null;
+    }
+
+    boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @param key
+     * @param value
+     * @return the value previously mapped to the key, or null if there was
+     * none
+     */
+    @SuppressWarnings("unchecked")
+    V put(long key, V value) {
+        Objects.requireNonNull(value);
+        int i = index(key);
+        Object old;
+        while ((old = values[i]) != null) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return (V) old;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > values.length) {
+            rehash(values.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * Removes a mapping. Entries following the removed slot are shifted back
+     * so that lookups never need tombstones.
+     *
+     * @param key
+     * @return the removed value, or null if there was none
+     */
+    @SuppressWarnings("unchecked")
+    V remove(long key) {
+        int gap = index(key);
+        Object old;
+        while ((old = values[gap]) != null) {
+            if (keys[gap] == key) {
+                break;
+            }
+            gap = (gap + 1) & mask;
+        }
+        if (old == null) {
+            return null;
+        }
+
+        int j = gap;
+        while (true) {
+            j = (j + 1) & mask;
+            if (values[j] == null) {
+                break;
+            }
+            int home = index(keys[j]);
+            // Move the entry into the gap unless its home slot lies cyclically within (gap, j]
+            if (gap <= j ? (home <= gap || home > j) : (home <= gap && home > j)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        values[gap] = null;
+        size--;
+        return (V) old;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /**
+     * Visits every mapping in unspecified order.
+     *
+     * @param visitor
+     */
+    @SuppressWarnings("unchecked")
+    void forEach(Visitor<? super V> visitor) {
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            if (value != null) {
+                visitor.visit(keys[i], (V) value);
+            }
+        }
+    }
+
+    private int index(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            Object value = oldValues[i];
+            if (value != null) {
+                int j = index(oldKeys[i]);
+                while (values[j] != null) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = value;
+            }
+        }
+    }
+
+    private static int tableSizeFor(int n) {
+        return Integer.highestOneBit(n - 1) << 1;
+    }
+
+    interface Visitor<V> {
+
+        void visit(long key, V value);
+    }
+}
@@ -0,0 +1,107 @@
+package dev.syndek.tesseract;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Instrumentation of the hot event handlers and of chunk indexing. A handler
+ * takes a timestamp with start() on entry and passes it to its
+ * HandlerMetrics on exit. While metrics are disabled, start() returns 0
+ * without reading the clock and recording is a single compare.
+ */
+final class Metrics {
+
+    private static final Metrics INSTANCE = new Metrics();
+
+    final HandlerMetrics create = new HandlerMetrics("onTesseractCreate");
+    final HandlerMetrics click = new HandlerMetrics("onTesseractClick");
+    final HandlerMetrics breakage = new HandlerMetrics("onTesseractBreak");
+    final HandlerMetrics dropper = new HandlerMetrics("onDropperRedstone");
+    final HandlerMetrics chunkIndex = new HandlerMetrics("Chunk indexing");
+
+    private final HandlerMetrics[] handlers = {create, click, breakage, dropper, chunkIndex};
+    private boolean enabled = true;
+    private BukkitTask task;
+
+    private Metrics() {
+    }
+
+    static Metrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Reads the metrics settings and starts the periodic log dump, if one is
+     * configured.
+     *
+     * @param plugin
+     */
+    void start(final Plugin plugin) {
+        ConfigurationSection config = plugin.getConfig();
+        enabled = config.getBoolean("metrics.enabled", true);
+        long intervalTicks = config.getLong("metrics.log-interval-minutes", 0) * 60 * 20;
+        if (enabled && intervalTicks > 0) {
+            Logger logger = plugin.getLogger();
+            task = plugin.getServer().getScheduler().runTaskTimer(plugin, () -> {
+                for (String line : report()) {
+                    logger.info(line);
+                }
+            }, intervalTicks, intervalTicks);
+        }
+    }
+
+    void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return the current time in nanoseconds, or 0 if metrics are disabled
+     */
+    long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    void reset() {
+        for (HandlerMetrics handler : handlers) {
+            handler.reset();
+        }
+    }
+
+    /**
+     * @return the handler summaries followed by the sizes of the in-memory
+     * structures
+     */
+    List<String> report() {
+        List<String> lines = new ArrayList<>();
+        if (enabled) {
+            for (HandlerMetrics handler : handlers) {
+                lines.add(handler.summary());
+            }
+        } else {
+            lines.add("Handler metrics are disabled.");
+        }
+        lines.add("Cached Tesseracts: " + TesseractCache.getInstance().size()
+                + ", containers with attached Tesseracts: " + AdjacencyIndex.getInstance().size()
+                + ", chunks waiting to be indexed: " + TesseractCache.getInstance().queuedChunks());
+        int[] groups = SorterGroups.getInstance().counts();
+        lines.add("Sorter groups: " + groups[0] + ", sorters: " + groups[1]);
+        lines.add("Tracked container powers: " + PowerMap.getInstance().size()
+                + " in " + PowerMap.getInstance().chunkCount() + " chunks");
+        lines.add("Pending sign writes: " + SignWriteQueue.getInstance().size()
+                + ", queued transfers: " + AutomationScheduler.getInstance().size()
+                + ", pending change events: " + ChangeDispatcher.getInstance().size()
+                + ", players with click state: " + ClickTracker.getInstance().size());
+        return lines;
+    }
+}
@@ -0,0 +1,25 @@
+package dev.syndek.tesseract;
+
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
+
+/**
+ * Fallback used when no supported protection plugin is installed.
+ */
+final class NoProtection implements ProtectionProvider {
+
+    static final NoProtection INSTANCE = new NoProtection();
+
+    private NoProtection() {
+    }
+
+    @Override
+    public boolean canUse(final Player player, final Block block) {
+        return true;
+    }
+
+    @Override
+    public boolean isUniformSection(final Block block) {
+        return true;
+    }
+}
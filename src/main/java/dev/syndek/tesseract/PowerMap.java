@@ -0,0 +1,141 @@
+package dev.syndek.tesseract;
+
+import java.util.HashMap;
+import java.util.UUID;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+
+/**
+ * Remembers the last redstone power level seen at each dropper and hopper, so
+ * that positive edges can be detected. Entries are partitioned per world and
+ * per chunk, and a chunk's partition is dropped as soon as the chunk unloads.
+ *
+ * Within a chunk, each entry is a single int holding the block's position
+ * relative to the chunk and its power level, stored in a small open-addressing
+ * table.
+ */
+final class PowerMap {
+
+    private static final PowerMap INSTANCE = new PowerMap();
+
+    private final HashMap<UUID, LongObjectMap<ChunkPowers>> worlds = new HashMap<>();
+
+    private PowerMap() {
+    }
+
+    static PowerMap getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Store the power level of a block.
+     *
+     * @param block
+     * @param power
+     * @return the previously stored power level, or -1 if there was none
+     */
+    int put(final Block block, final int power) {
+        UUID world = block.getWorld().getUID();
+        LongObjectMap<ChunkPowers> chunks = worlds.get(world);
+        if (chunks == null) {
+            chunks = new LongObjectMap<>(256);
+            worlds.put(world, chunks);
+        }
+        long chunkKey = BlockKey.chunk(block.getX() >> 4, block.getZ() >> 4);
+        ChunkPowers powers = chunks.get(chunkKey);
+        if (powers == null) {
+            powers = new ChunkPowers();
+            chunks.put(chunkKey, powers);
+        }
+        return powers.put(ChunkPowers.localKey(block.getX(), block.getY(), block.getZ()), power);
+    }
+
+    void unloadChunk(final Chunk chunk) {
+        LongObjectMap<ChunkPowers> chunks = worlds.get(chunk.getWorld().getUID());
+        if (chunks != null) {
+            chunks.remove(BlockKey.chunk(chunk.getX(), chunk.getZ()));
+        }
+    }
+
+    void unloadWorld(final World world) {
+        worlds.remove(world.getUID());
+    }
+
+    void clear() {
+        worlds.clear();
+    }
+
+    /**
+     * @return the number of blocks with a remembered power level
+     */
+    int size() {
+        int[] size = {0};
+        for (LongObjectMap<ChunkPowers> chunks : worlds.values()) {
+            chunks.forEach((key, powers) -> size[0] += powers.size);
+        }
+        return size[0];
+    }
+
+    /**
+     * @return the number of chunk partitions across all worlds
+     */
+    int chunkCount() {
+        int count = 0;
+        for (LongObjectMap<ChunkPowers> chunks : worlds.values()) {
+            count += chunks.size();
+        }
+        return count;
+    }
+
+    private static final class ChunkPowers {
+
+        // Entries are ((localKey + 1) << 8) | power, so that 0 marks a free slot
+        private int[] entries = new int[8];
+        private int size;
+
+        private static int localKey(int x, int y, int z) {
+            return ((y & 0xFFF) << 8) | ((z & 0xF) << 4) | (x & 0xF);
+        }
+
+        private int put(int localKey, int power) {
+            int tag = localKey + 1;
+            int entry = (tag << 8) | (power & 0xFF);
+            int mask = entries.length - 1;
+            int i = mix(tag) & mask;
+            int current;
+            while ((current = entries[i]) != 0) {
+                if (current >>> 8 == tag) {
+                    entries[i] = entry;
+                    return current & 0xFF;
+                }
+                i = (i + 1) & mask;
+            }
+            entries[i] = entry;
+            if (++size * 2 > entries.length) {
+                grow();
+            }
+            return -1;
+        }
+
+        private void grow() {
+            int[] old = entries;
+            entries = new int[old.length * 2];
+            int mask = entries.length - 1;
+            for (int entry : old) {
+                if (entry != 0) {
+                    int i = mix(entry >>> 8) & mask;
+                    while (entries[i] != 0) {
+                        i = (i + 1) & mask;
+                    }
+                    entries[i] = entry;
+                }
+            }
+        }
+
+        private static int mix(int tag) {
+            int hash = tag * 0x9E3779B9;
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
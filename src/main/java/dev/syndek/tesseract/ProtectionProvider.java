@@ -0,0 +1,30 @@
+package dev.syndek.tesseract;
+
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
+
+/**
+ * Decides whether a player may use the Tesseract at a block on behalf of a
+ * protection plugin. Tesseract's own permission nodes are checked before any
+ * provider is consulted.
+ */
+interface ProtectionProvider {
+
+    /**
+     * @param player
+     * @param block
+     * @return true if the protection plugin allows the player to use the block
+     */
+    boolean canUse(Player player, Block block);
+
+    /**
+     * Whether a decision for a block holds for every block of its 16x16x16
+     * chunk section, so that it may be reused across the section.
+     *
+     * @param block
+     * @return true if no protected area ends within the block's section
+     */
+    default boolean isUniformSection(Block block) {
+        return false;
+    }
+}
@@ -0,0 +1,67 @@
+package dev.syndek.tesseract;
+
+import org.bukkit.block.BlockState;
+import org.bukkit.block.ShulkerBox;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+import org.bukkit.inventory.meta.BlockStateMeta;
+import org.bukkit.inventory.meta.ItemMeta;
+
+/**
+ * Applies a bulk move to every shulker box in a player's inventory as one
+ * operation. Each box's meta is decoded once and only written back if its
+ * contents changed, and the player's inventory is committed once at the end.
+ */
+final class ShulkerTransfer {
+
+    private ShulkerTransfer() {
+    }
+
+    /**
+     * @param inventory
+     * @param move applied to the contents of each shulker box
+     * @return true if the contents of any box have changed
+     */
+    static boolean forEachShulker(final PlayerInventory inventory, final Move move) {
+        ItemStack[] stacks = inventory.getStorageContents();
+        boolean changed = false;
+        for (ItemStack stack : stacks) {
+            if (stack == null || !Tesseract.isMaterialShulkerBox(stack.getType()) || !stack.hasItemMeta()) {
+                continue;
+            }
+            ItemMeta meta = stack.getItemMeta();
+            if (!(meta instanceof BlockStateMeta)) {
+                continue;
+            }
+            BlockStateMeta blockStateMeta = (BlockStateMeta) meta;
+            BlockState state = blockStateMeta.getBlockState();
+            if (!(state instanceof ShulkerBox)) {
+                continue;
+            }
+            ShulkerBox shulker = (ShulkerBox) state;
+            Inventory shulkerInventory = shulker.getInventory();
+            ItemStack[] contents = shulkerInventory.getContents();
+            if (!move.apply(contents)) {
+                continue;
+            }
+            shulkerInventory.setContents(contents);
+            blockStateMeta.setBlockState(shulker);
+            stack.setItemMeta(blockStateMeta);
+            changed = true;
+        }
+        if (changed) {
+            inventory.setStorageContents(stacks);
+        }
+        return changed;
+    }
+
+    interface Move {
+
+        /**
+         * @param contents the contents of a shulker box, modified in place
+         * @return true if the contents have changed
+         */
+        boolean apply(ItemStack[] contents);
+    }
+}
@@ -0,0 +1,33 @@
+package dev.syndek.tesseract;
+
+import org.bukkit.block.Block;
+import org.bukkit.block.Sign;
+
+/**
+ * State of a storage sign (a Tesseract or a Vault) that is kept in the
+ * TesseractCache and rendered onto its sign by the SignWriteQueue.
+ */
+interface SignContents {
+
+    /**
+     * Schedule the state to be written to the sign at the given block.
+     *
+     * @param signBlock
+     */
+    void update(Block signBlock);
+
+    /**
+     * Write the state to a sign immediately.
+     *
+     * @param sign
+     * @return true if the sign has changed
+     */
+    boolean update(Sign sign);
+
+    /**
+     * @return true if the state was read from or written to a binary record
+     */
+    boolean isPersisted();
+
+    boolean isEmpty();
+}
@@ -0,0 +1,157 @@
+package dev.syndek.tesseract;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.UUID;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Sign;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Coalesces sign writes. Tesseracts mark their sign dirty after every
+ * operation, and the queue writes each dirty sign at most once per server
+ * tick. Several deposits into the same Tesseract within one tick therefore
+ * cost a single BlockState snapshot and at most a single sign update.
+ */
+final class SignWriteQueue {
+
+    private static final SignWriteQueue INSTANCE = new SignWriteQueue();
+
+    private HashMap<UUID, LongObjectMap<PendingWrite>> pending = new HashMap<>();
+    private HashMap<UUID, LongObjectMap<PendingWrite>> flushing = new HashMap<>();
+    private BukkitTask task;
+    private long[] chunkKeys = new long[16];
+    private int chunkKeyCount;
+
+    private SignWriteQueue() {
+    }
+
+    static SignWriteQueue getInstance() {
+        return INSTANCE;
+    }
+
+    void start(final Plugin plugin) {
+        task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::flush, 1, 1);
+    }
+
+    void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        flush();
+    }
+
+    /**
+     * Schedule the sign at the given block to be rewritten with the given
+     * contents at the end of the current tick. Marking the same block again
+     * before then only replaces the contents to be written.
+     *
+     * @param signBlock
+     * @param contents
+     */
+    void markDirty(final Block signBlock, final SignContents contents) {
+        UUID world = signBlock.getWorld().getUID();
+        LongObjectMap<PendingWrite> writes = pending.get(world);
+        if (writes == null) {
+            writes = new LongObjectMap<>();
+            pending.put(world, writes);
+        }
+        long key = BlockKey.of(signBlock);
+        PendingWrite write = writes.get(key);
+        if (write == null) {
+            writes.put(key, new PendingWrite(signBlock, contents));
+        } else {
+            write.contents = contents;
+        }
+    }
+
+    /**
+     * Write every dirty sign. Called once per tick.
+     */
+    void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        // Swap buffers so that writes marked during the flush land in the next batch
+        HashMap<UUID, LongObjectMap<PendingWrite>> batch = pending;
+        pending = flushing;
+        flushing = batch;
+        for (LongObjectMap<PendingWrite> writes : batch.values()) {
+            writes.forEach((key, write) -> write.apply());
+        }
+        batch.clear();
+    }
+
+    /**
+     * Write the dirty signs in a chunk that is about to unload.
+     *
+     * @param world
+     * @param chunkX
+     * @param chunkZ
+     */
+    void flushChunk(final World world, final int chunkX, final int chunkZ) {
+        LongObjectMap<PendingWrite> writes = pending.get(world.getUID());
+        if (writes == null) {
+            return;
+        }
+        // Collect first, as the map must not change while it is visited
+        long chunk = BlockKey.chunk(chunkX, chunkZ);
+        chunkKeyCount = 0;
+        writes.forEach((key, write) -> {
+            if (BlockKey.chunkOf(key) == chunk) {
+                if (chunkKeyCount == chunkKeys.length) {
+                    chunkKeys = Arrays.copyOf(chunkKeys, chunkKeyCount * 2);
+                }
+                chunkKeys[chunkKeyCount++] = key;
+            }
+        });
+        for (int i = 0; i < chunkKeyCount; i++) {
+            writes.remove(chunkKeys[i]).apply();
+        }
+    }
+
+    /**
+     * Write the dirty signs in a world that is about to unload.
+     *
+     * @param world
+     */
+    void flushWorld(final World world) {
+        LongObjectMap<PendingWrite> writes = pending.remove(world.getUID());
+        if (writes != null) {
+            writes.forEach((key, write) -> write.apply());
+        }
+    }
+
+    /**
+     * @return the number of signs waiting to be written
+     */
+    int size() {
+        int size = 0;
+        for (LongObjectMap<PendingWrite> writes : pending.values()) {
+            size += writes.size();
+        }
+        return size;
+    }
+
+    private static final class PendingWrite {
+
+        private final Block block;
+        private SignContents contents;
+
+        private PendingWrite(Block block, SignContents contents) {
+            this.block = block;
+            this.contents = contents;
+        }
+
+        private void apply() {
+            BlockState state = block.getState();
+            if (state instanceof Sign) {
+                contents.update((Sign) state);
+            }
+        }
+    }
+}
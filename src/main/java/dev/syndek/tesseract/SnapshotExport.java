@@ -0,0 +1,282 @@
+package dev.syndek.tesseract;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+import org.bukkit.ChatColor;
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Writes the contents of every Tesseract and Vault in the loaded chunks to a
+ * snapshot file in the plugin's snapshots folder. See SnapshotReader for the
+ * file layout.
+ *
+ * The contents are copied from the TesseractCache on the main thread within
+ * a fixed time budget per tick, one chunk at a time, into a compact entry
+ * buffer. Each chunk is captured in a single step, but chunks are captured
+ * across several ticks, so the snapshot is not atomic across chunks. The file
+ * is written off the main thread, to a temporary file that replaces the
+ * target once complete.
+ */
+final class SnapshotExport {
+
+    private static final SnapshotExport INSTANCE = new SnapshotExport();
+    private static final Material[] MATERIALS = Material.values();
+
+    private final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+    private Plugin plugin;
+    private CommandSender requester;
+    private TickBudget budget;
+    private BukkitTask task;
+    private int chunkTotal;
+    private int chunksVisited;
+    private long startMillis;
+
+    // Header tables and entries
+    private List<World> worlds;
+    private HashMap<UUID, Integer> worldIndexes;
+    private List<Material> materials;
+    private int[] materialIndexes;
+    private ByteBuffer entries;
+    private int entryCount;
+    private long[] vaultAmounts;
+
+    private SnapshotExport() {
+    }
+
+    static SnapshotExport getInstance() {
+        return INSTANCE;
+    }
+
+    boolean isRunning() {
+        return task != null;
+    }
+
+    /**
+     * Starts a snapshot of all currently loaded chunks.
+     *
+     * @param plugin
+     * @param requester receives a message when the snapshot has been written
+     * @return false if an export is already running
+     */
+    boolean start(final Plugin plugin, final CommandSender requester) {
+        if (isRunning()) {
+            return false;
+        }
+        this.plugin = plugin;
+        this.requester = requester;
+        budget = new TickBudget(plugin.getConfig().getLong("snapshot.max-micros-per-tick", 1000));
+        for (World world : plugin.getServer().getWorlds()) {
+            chunks.addAll(Arrays.asList(world.getLoadedChunks()));
+        }
+        chunkTotal = chunks.size();
+        chunksVisited = 0;
+        startMillis = System.currentTimeMillis();
+        worlds = new ArrayList<>();
+        worldIndexes = new HashMap<>();
+        materials = new ArrayList<>();
+        materialIndexes = new int[MATERIALS.length];
+        Arrays.fill(materialIndexes, -1);
+        entries = ByteBuffer.allocate(SnapshotReader.ENTRY_LENGTH * 1024);
+        entryCount = 0;
+        vaultAmounts = new long[MATERIALS.length];
+        task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::run, 1, 1);
+        return true;
+    }
+
+    /**
+     * Aborts a running export without writing a file.
+     */
+    void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        chunks.clear();
+        entries = null;
+        worlds = null;
+        requester = null;
+    }
+
+    /**
+     * @return a progress message for the running export
+     */
+    String progress() {
+        return "Export: " + chunksVisited + " of " + chunkTotal + " chunks, " + entryCount + " entries";
+    }
+
+    private void run() {
+        budget.start();
+        while (!budget.isExhausted()) {
+            Chunk chunk = chunks.poll();
+            if (chunk == null) {
+                finish();
+                return;
+            }
+            chunksVisited++;
+            // Never load chunks that unloaded since the export started
+            if (chunk.isLoaded()) {
+                capture(chunk);
+            }
+        }
+    }
+
+    private void capture(final Chunk chunk) {
+        World world = chunk.getWorld();
+        Integer worldIndex = worldIndexes.get(world.getUID());
+        if (worldIndex == null) {
+            worldIndex = worlds.size();
+            worlds.add(world);
+            worldIndexes.put(world.getUID(), worldIndex);
+        }
+        int worldId = worldIndex;
+        TesseractCache.getInstance().forEachInChunk(chunk, (key, contents) -> {
+            if (contents instanceof Tesseract) {
+                Tesseract tesseract = (Tesseract) contents;
+                Material material = tesseract.isEmpty() ? Material.AIR : tesseract.getMaterial();
+                put(worldId, key, material, tesseract.isEmpty() ? 0 : tesseract.getAmount(),
+                        tesseract.getFormatVersion(), SnapshotReader.TYPE_TESSERACT);
+                return;
+            }
+            Vault vault = (Vault) contents;
+            if (vault.isEmpty()) {
+                put(worldId, key, Material.AIR, 0, 0, SnapshotReader.TYPE_VAULT);
+                return;
+            }
+            vault.addAmountsTo(vaultAmounts);
+            for (int i = 0; i < vaultAmounts.length; i++) {
+                if (vaultAmounts[i] > 0) {
+                    put(worldId, key, MATERIALS[i], vaultAmounts[i], 0, SnapshotReader.TYPE_VAULT);
+                    vaultAmounts[i] = 0;
+                }
+            }
+        });
+    }
+
+    private void put(final int world, final long key, final Material material, final long amount, final int version, final byte type) {
+        int materialIndex = materialIndexes[material.ordinal()];
+        if (materialIndex < 0) {
+            materialIndex = materials.size();
+            materials.add(material);
+            materialIndexes[material.ordinal()] = materialIndex;
+        }
+        if (entries.remaining() < SnapshotReader.ENTRY_LENGTH) {
+            ByteBuffer grown = ByteBuffer.allocate(entries.capacity() * 2);
+            entries.flip();
+            grown.put(entries);
+            entries = grown;
+        }
+        entries.putShort((short) world);
+        entries.putInt(BlockKey.x(key));
+        entries.putShort((short) BlockKey.y(key));
+        entries.putInt(BlockKey.z(key));
+        entries.putShort((short) materialIndex);
+        entries.putLong(amount);
+        entries.put((byte) version);
+        entries.put(type);
+        entryCount++;
+    }
+
+    private void finish() {
+        task.cancel();
+        task = null;
+        ByteBuffer header = header();
+        ByteBuffer body = entries;
+        body.flip();
+        int count = entryCount;
+        entries = null;
+        worlds = null;
+        CommandSender sender = requester;
+        requester = null;
+
+        File file = new File(new File(plugin.getDataFolder(), "snapshots"),
+                "snapshot-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(startMillis)) + ".bin");
+        Plugin owner = plugin;
+        owner.getServer().getScheduler().runTaskAsynchronously(owner, () -> {
+            String message;
+            try {
+                write(file.toPath(), header, body);
+                message = ChatColor.GRAY + "Tesseract snapshot of " + count + " entries written to " + file.getPath();
+            } catch (IOException e) {
+                owner.getLogger().warning("Could not write snapshot: " + e);
+                message = ChatColor.RED + "Could not write the Tesseract snapshot, see the server log.";
+            }
+            String result = message;
+            if (owner.isEnabled() && sender != null) {
+                owner.getServer().getScheduler().runTask(owner, () -> sender.sendMessage(result));
+            }
+        });
+    }
+
+    private ByteBuffer header() {
+        int length = SnapshotReader.MAGIC.length + 2 + 8 + 2 + 2 + 4;
+        List<byte[]> worldNames = new ArrayList<>();
+        for (World world : worlds) {
+            byte[] name = world.getName().getBytes(StandardCharsets.UTF_8);
+            if (name.length > 255) {
+                name = Arrays.copyOf(name, 255);
+            }
+            worldNames.add(name);
+            length += 16 + 1 + name.length;
+        }
+        for (Material material : materials) {
+            length += 1 + TesseractStorage.nameBytes(material).length;
+        }
+        ByteBuffer header = ByteBuffer.allocate(length);
+        header.put(SnapshotReader.MAGIC);
+        header.putShort(SnapshotReader.FORMAT_VERSION);
+        header.putLong(startMillis);
+        header.putShort((short) worlds.size());
+        for (int i = 0; i < worlds.size(); i++) {
+            UUID id = worlds.get(i).getUID();
+            header.putLong(id.getMostSignificantBits());
+            header.putLong(id.getLeastSignificantBits());
+            header.put((byte) worldNames.get(i).length);
+            header.put(worldNames.get(i));
+        }
+        header.putShort((short) materials.size());
+        for (Material material : materials) {
+            byte[] name = TesseractStorage.nameBytes(material);
+            header.put((byte) name.length);
+            header.put(name);
+        }
+        header.putInt(entryCount);
+        header.flip();
+        return header;
+    }
+
+    private static void write(final Path path, final ByteBuffer header, final ByteBuffer body) throws IOException {
+        Files.createDirectories(path.getParent());
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            while (body.hasRemaining()) {
+                channel.write(body);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,219 @@
+package dev.syndek.tesseract;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Restores the contents of Tesseracts and Vaults from a snapshot written by
+ * SnapshotExport. The snapshot is mapped off the main thread, then its
+ * entries are applied on the main thread within a fixed time budget per tick.
+ * Restored contents are journaled and written like any other change.
+ *
+ * Only existing Tesseracts and Vaults in loaded chunks are restored. Entries
+ * of signs that no longer exist or no longer match the entry's type, of
+ * unloaded chunks, of worlds or materials unknown to this server, and with
+ * indexes outside the snapshot's header tables are skipped. A Vault is
+ * emptied before its entries are applied, so it holds exactly the snapshot's
+ * contents afterwards.
+ */
+final class SnapshotImport {
+
+    private static final SnapshotImport INSTANCE = new SnapshotImport();
+
+    private Plugin plugin;
+    private CommandSender requester;
+    private TickBudget budget;
+    private BukkitTask task;
+    private boolean opening;
+
+    private SnapshotReader reader;
+    private World[] worlds;
+    private Material[] materials;
+    private int next;
+    private long restored;
+    private long skipped;
+    private Vault currentVault;
+
+    private SnapshotImport() {
+    }
+
+    static SnapshotImport getInstance() {
+        return INSTANCE;
+    }
+
+    boolean isRunning() {
+        return task != null || opening;
+    }
+
+    /**
+     * Starts to restore a snapshot.
+     *
+     * @param plugin
+     * @param requester receives a message when the snapshot has been applied
+     * @param path
+     * @return false if an import is already running
+     */
+    boolean start(final Plugin plugin, final CommandSender requester, final Path path) {
+        if (isRunning()) {
+            return false;
+        }
+        this.plugin = plugin;
+        this.requester = requester;
+        opening = true;
+        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> {
+            try {
+                SnapshotReader opened = new SnapshotReader(path);
+                plugin.getServer().getScheduler().runTask(plugin, () -> begin(opened));
+            } catch (IOException e) {
+                plugin.getLogger().warning("Could not read snapshot: " + e);
+                plugin.getServer().getScheduler().runTask(plugin, () -> {
+                    opening = false;
+                    message(ChatColor.RED + "Could not read the Tesseract snapshot: " + e.getMessage());
+                    this.requester = null;
+                });
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Aborts a running import. Entries applied so far stay applied.
+     */
+    void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        opening = false;
+        close();
+        requester = null;
+    }
+
+    /**
+     * @return a progress message for the running import
+     */
+    String progress() {
+        if (reader == null) {
+            return "Import: opening snapshot";
+        }
+        return "Import: " + next + " of " + reader.size() + " entries, " + restored + " restored, " + skipped + " skipped";
+    }
+
+    private void begin(final SnapshotReader opened) {
+        if (!opening) {
+            // Stopped while the snapshot was being opened
+            closeQuietly(opened);
+            return;
+        }
+        opening = false;
+        reader = opened;
+        worlds = new World[reader.getWorldCount()];
+        for (int i = 0; i < worlds.length; i++) {
+            worlds[i] = plugin.getServer().getWorld(reader.getWorldId(i));
+        }
+        materials = new Material[reader.getMaterialCount()];
+        for (int i = 0; i < materials.length; i++) {
+            materials[i] = Material.getMaterial(reader.getMaterialName(i));
+        }
+        next = 0;
+        restored = 0;
+        skipped = 0;
+        currentVault = null;
+        budget = new TickBudget(plugin.getConfig().getLong("snapshot.max-micros-per-tick", 1000));
+        task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::run, 1, 1);
+        message(ChatColor.GRAY + "Tesseract import started. " + progress());
+    }
+
+    private void run() {
+        budget.start();
+        while (!budget.isExhausted()) {
+            if (next == reader.size()) {
+                String report = progress();
+                CommandSender sender = requester;
+                stop();
+                if (sender != null) {
+                    sender.sendMessage(ChatColor.GRAY + "Tesseract import finished. " + report);
+                }
+                return;
+            }
+            if (apply(next++)) {
+                restored++;
+            } else {
+                skipped++;
+            }
+        }
+    }
+
+    private boolean apply(final int entry) {
+        int worldIndex = reader.getWorld(entry);
+        int materialIndex = reader.getMaterial(entry);
+        // Indexes outside the header tables only occur in corrupt snapshots
+        if (worldIndex >= worlds.length || materialIndex >= materials.length) {
+            return false;
+        }
+        World world = worlds[worldIndex];
+        Material material = materials[materialIndex];
+        int x = reader.getX(entry);
+        int z = reader.getZ(entry);
+        if (world == null || material == null || !world.isChunkLoaded(x >> 4, z >> 4)) {
+            return false;
+        }
+        Block block = world.getBlockAt(x, reader.getY(entry), z);
+        SignContents contents = TesseractCache.getInstance().getContents(block);
+        long amount = material == Material.AIR ? 0 : Math.max(0, Math.min(reader.getAmount(entry), Tesseract.getCapacity(material)));
+        if (reader.isVault(entry)) {
+            if (!(contents instanceof Vault)) {
+                return false;
+            }
+            Vault vault = (Vault) contents;
+            // The entries of a Vault are adjacent
+            if (vault != currentVault) {
+                vault.clear();
+                currentVault = vault;
+            }
+            if (material != Material.AIR) {
+                vault.setAmount(material, amount);
+            }
+            vault.update(block);
+            return true;
+        }
+        currentVault = null;
+        if (!(contents instanceof Tesseract)) {
+            return false;
+        }
+        ((Tesseract) contents).setContents(material, amount);
+        contents.update(block);
+        return true;
+    }
+
+    private void message(final String message) {
+        if (requester != null) {
+            requester.sendMessage(message);
+        }
+    }
+
+    private void close() {
+        if (reader != null) {
+            closeQuietly(reader);
+            reader = null;
+        }
+        worlds = null;
+        materials = null;
+        currentVault = null;
+    }
+
+    private void closeQuietly(final SnapshotReader snapshot) {
+        try {
+            snapshot.close();
+        } catch (IOException e) {
+            plugin.getLogger().warning("Could not close snapshot: " + e);
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package dev.syndek.tesseract;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.UUID;
+
+/**
+ * Reads a snapshot written by /tesseract export. The file is memory-mapped
+ * and entries are decoded on access, so dumps of millions of entries can be
+ * queried without loading them onto the heap. The reader depends on the Java
+ * runtime only, and can be used by offline tools:
+ *
+ * java -cp Tesseract.jar dev.syndek.tesseract.SnapshotReader snapshot.bin
+ *
+ * File layout (big-endian):
+ *
+ * (1) 4 bytes: magic "TSNP"
+ * (2) 2 bytes: format version
+ * (3) 8 bytes: creation time, in milliseconds since the epoch
+ * (4) 2 bytes: number of worlds, then per world 16 bytes UUID, 1 byte name
+ * length, name (UTF-8)
+ * (5) 2 bytes: number of materials, then per material 1 byte name length,
+ * name (ASCII)
+ * (6) 4 bytes: number of entries
+ * (7) entries of 24 bytes each: 2 bytes world index, 4 bytes X, 2 bytes Y, 4
+ * bytes Z, 2 bytes material index, 8 bytes amount, 1 byte format version of
+ * the sign text, 1 byte type
+ *
+ * World and material indexes refer to the tables in the header, so entries
+ * survive material ordinal changes between server versions. A Tesseract has
+ * one entry, a Vault one entry per stored material. Empty Tesseracts and
+ * Vaults have a single AIR entry with an amount of 0. Entries of one Vault
+ * are adjacent.
+ *
+ * The mapping is limited to 2 GB, about 89 million entries. Not
+ * thread-safe.
+ */
+public final class SnapshotReader implements Closeable {
+
+    static final byte[] MAGIC = {'T', 'S', 'N', 'P'};
+    static final short FORMAT_VERSION = 1;
+    static final int ENTRY_LENGTH = 24;
+    static final byte TYPE_TESSERACT = 0;
+    static final byte TYPE_VAULT = 1;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final long createdMillis;
+    private final UUID[] worldIds;
+    private final String[] worldNames;
+    private final String[] materialNames;
+    private final int size;
+    private final int entriesOffset;
+
+    /**
+     * Maps a snapshot file and reads its header.
+     *
+     * @param path
+     * @throws IOException if the file cannot be read or is no valid snapshot
+     */
+    public SnapshotReader(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Snapshot exceeds 2 GB: " + path);
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            byte[] magic = new byte[MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a Tesseract snapshot: " + path);
+            }
+            short version = buffer.getShort();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported snapshot format version " + version + ": " + path);
+            }
+            createdMillis = buffer.getLong();
+
+            int worldCount = buffer.getShort() & 0xFFFF;
+            worldIds = new UUID[worldCount];
+            worldNames = new String[worldCount];
+            for (int i = 0; i < worldCount; i++) {
+                worldIds[i] = new UUID(buffer.getLong(), buffer.getLong());
+                worldNames[i] = readName(buffer, StandardCharsets.UTF_8);
+            }
+            int materialCount = buffer.getShort() & 0xFFFF;
+            materialNames = new String[materialCount];
+            for (int i = 0; i < materialCount; i++) {
+                materialNames[i] = readName(buffer, StandardCharsets.US_ASCII);
+            }
+            size = buffer.getInt();
+            entriesOffset = buffer.position();
+            if (size < 0 || (long) entriesOffset + (long) size * ENTRY_LENGTH != buffer.limit()) {
+                throw new IOException("Truncated or corrupt snapshot: " + path);
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e instanceof IOException ? (IOException) e : new IOException("Corrupt snapshot: " + path, e);
+        }
+    }
+
+    private static String readName(final ByteBuffer buffer, final Charset charset) {
+        byte[] name = new byte[buffer.get() & 0xFF];
+        buffer.get(name);
+        return new String(name, charset);
+    }
+
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+
+    public int getWorldCount() {
+        return worldIds.length;
+    }
+
+    public UUID getWorldId(int world) {
+        return worldIds[world];
+    }
+
+    public String getWorldName(int world) {
+        return worldNames[world];
+    }
+
+    public int getMaterialCount() {
+        return materialNames.length;
+    }
+
+    public String getMaterialName(int material) {
+        return materialNames[material];
+    }
+
+    /**
+     * @param name
+     * @return the index of the material in the header, or -1 if the snapshot
+     * has no entry of the material
+     */
+    public int getMaterialIndex(String name) {
+        for (int i = 0; i < materialNames.length; i++) {
+            if (materialNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @param entry
+     * @return the index of the entry's world in the header; not checked
+     * against getWorldCount()
+     */
+    public int getWorld(int entry) {
+        return buffer.getShort(offset(entry)) & 0xFFFF;
+    }
+
+    public int getX(int entry) {
+        return buffer.getInt(offset(entry) + 2);
+    }
+
+    public int getY(int entry) {
+        return buffer.getShort(offset(entry) + 6);
+    }
+
+    public int getZ(int entry) {
+        return buffer.getInt(offset(entry) + 8);
+    }
+
+    /**
+     * @param entry
+     * @return the index of the entry's material in the header; not checked
+     * against getMaterialCount()
+     */
+    public int getMaterial(int entry) {
+        return buffer.getShort(offset(entry) + 12) & 0xFFFF;
+    }
+
+    public long getAmount(int entry) {
+        return buffer.getLong(offset(entry) + 14);
+    }
+
+    /**
+     * @param entry
+     * @return the encoding scheme the sign text was in when the snapshot was
+     * taken, or 0 for Vaults
+     */
+    public int getFormatVersion(int entry) {
+        return buffer.get(offset(entry) + 22);
+    }
+
+    public boolean isVault(int entry) {
+        return buffer.get(offset(entry) + 23) == TYPE_VAULT;
+    }
+
+    /**
+     * @param material index of the material in the header
+     * @return the number of items of the material in all Tesseracts and Vaults
+     */
+    public long getTotalAmount(int material) {
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            if (getMaterial(i) == material) {
+                total += getAmount(i);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @param world index of the world in the header
+     * @param x
+     * @param y
+     * @param z
+     * @return the first entry of the sign at the position, or -1 if there is
+     * none
+     */
+    public int find(int world, int x, int y, int z) {
+        for (int i = 0; i < size; i++) {
+            int offset = offset(i);
+            if (buffer.getInt(offset + 2) == x && buffer.getInt(offset + 8) == z
+                    && buffer.getShort(offset + 6) == y && (buffer.getShort(offset) & 0xFFFF) == world) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int offset(final int entry) {
+        if (entry < 0 || entry >= size) {
+            throw new IndexOutOfBoundsException("Entry " + entry + " out of bounds for " + size + " entries");
+        }
+        return entriesOffset + entry * ENTRY_LENGTH;
+    }
+
+    /**
+     * Closes the file. The mapping itself is released by the garbage
+     * collector.
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Prints a summary of a snapshot, and the total amount of each material.
+     *
+     * @param args the snapshot file
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("Usage: java -cp Tesseract.jar dev.syndek.tesseract.SnapshotReader <snapshot>");
+            System.exit(2);
+        }
+        try (SnapshotReader reader = new SnapshotReader(Paths.get(args[0]))) {
+            System.out.println("Snapshot of " + new Date(reader.getCreatedMillis()) + ", "
+                    + reader.size() + " entries in " + reader.getWorldCount() + " worlds");
+            long[] totals = new long[reader.getMaterialCount()];
+            int invalid = 0;
+            for (int i = 0; i < reader.size(); i++) {
+                int material = reader.getMaterial(i);
+                if (material < totals.length) {
+                    totals[material] += reader.getAmount(i);
+                } else {
+                    invalid++;
+                }
+            }
+            if (invalid > 0) {
+                System.out.println(invalid + " entries with an invalid material index");
+            }
+            for (int material = 0; material < totals.length; material++) {
+                if (totals[material] > 0) {
+                    System.out.println(reader.getMaterialName(material) + ": " + totals[material]);
+                }
+            }
+        }
+    }
+}
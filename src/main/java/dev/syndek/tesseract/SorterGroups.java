@@ -0,0 +1,395 @@
+package dev.syndek.tesseract;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.UUID;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+
+/**
+ * Named groups of Tesseracts and Vaults, fed by sorter droppers. A sorter
+ * dropper is bound to a group by name instead of serving the signs attached
+ * to it, and routes each stack with one EnumMap lookup from material to the
+ * Tesseracts holding it. A pulse therefore costs O(slots) no matter how many
+ * Tesseracts the group has.
+ *
+ * The Tesseracts of a material are filled one after another, and a full one
+ * is skipped until the group is rescanned. Once all of them are full, or if
+ * no Tesseract holds the material yet, stacks claim an empty Tesseract of the
+ * group. What no Tesseract takes goes to the group's Vaults, in no particular
+ * order, and what nobody takes stays in the dropper.
+ *
+ * Group names are stored in the PersistentDataContainer of the signs and
+ * droppers, and the groups are rebuilt by the TesseractCache as it indexes
+ * chunks. Only members in indexed chunks are part of a group. Groups are
+ * scoped to their world.
+ */
+final class SorterGroups {
+
+    private static final SorterGroups INSTANCE = new SorterGroups();
+
+    private final HashMap<UUID, WorldGroups> worlds = new HashMap<>();
+
+    private SorterGroups() {
+    }
+
+    static SorterGroups getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Add a Tesseract or Vault to a group, removing it from its previous
+     * group.
+     *
+     * @param signBlock
+     * @param contents the cached contents of the sign
+     * @param name
+     */
+    void addMember(final Block signBlock, final SignContents contents, final String name) {
+        WorldGroups world = getWorld(signBlock.getWorld().getUID(), true);
+        long key = BlockKey.of(signBlock);
+        removeMember(world, key);
+        Group group = world.groups.get(name);
+        if (group == null) {
+            group = new Group(name);
+            world.groups.put(name, group);
+        }
+        Member member = new Member(signBlock, contents, group);
+        world.members.put(key, member);
+        group.members.put(key, member);
+        group.dirty = true;
+    }
+
+    /**
+     * @param world
+     * @param signKey
+     */
+    void removeMember(final UUID world, final long signKey) {
+        WorldGroups groups = getWorld(world, false);
+        if (groups != null) {
+            removeMember(groups, signKey);
+        }
+    }
+
+    private static void removeMember(final WorldGroups world, final long signKey) {
+        Member member = world.members.remove(signKey);
+        if (member == null) {
+            return;
+        }
+        Group group = member.group;
+        group.members.remove(signKey);
+        group.dirty = true;
+        if (group.members.isEmpty()) {
+            world.groups.remove(group.name);
+        }
+    }
+
+    /**
+     * Bind a dropper to a group.
+     *
+     * @param dropperBlock
+     * @param name
+     */
+    void addSorter(final Block dropperBlock, final String name) {
+        getWorld(dropperBlock.getWorld().getUID(), true).sorters.put(BlockKey.of(dropperBlock), name);
+    }
+
+    void removeSorter(final Block dropperBlock) {
+        WorldGroups world = getWorld(dropperBlock.getWorld().getUID(), false);
+        if (world != null) {
+            world.sorters.remove(BlockKey.of(dropperBlock));
+        }
+    }
+
+    /**
+     * @param block
+     * @return true if the block is a dropper bound to a group
+     */
+    boolean isSorter(final Block block) {
+        return getSorterGroup(block) != null;
+    }
+
+    /**
+     * @param dropperBlock
+     * @return the name of the group the dropper is bound to, or null
+     */
+    String getSorterGroup(final Block dropperBlock) {
+        WorldGroups world = getWorld(dropperBlock.getWorld().getUID(), false);
+        return world == null ? null : world.sorters.get(BlockKey.of(dropperBlock));
+    }
+
+    /**
+     * @param signBlock
+     * @return the name of the group the sign belongs to, or null
+     */
+    String getMemberGroup(final Block signBlock) {
+        WorldGroups world = getWorld(signBlock.getWorld().getUID(), false);
+        Member member = world == null ? null : world.members.get(BlockKey.of(signBlock));
+        return member == null ? null : member.group.name;
+    }
+
+    /**
+     * @param dropperBlock
+     * @return the group the dropper is bound to, or null if it is no sorter or
+     * its group has no members in indexed chunks
+     */
+    Group getGroup(final Block dropperBlock) {
+        WorldGroups world = getWorld(dropperBlock.getWorld().getUID(), false);
+        if (world == null) {
+            return null;
+        }
+        String name = world.sorters.get(BlockKey.of(dropperBlock));
+        return name == null ? null : world.groups.get(name);
+    }
+
+    /**
+     * @param world
+     * @param name
+     * @return the number of members of the group in indexed chunks
+     */
+    int size(final UUID world, final String name) {
+        WorldGroups groups = getWorld(world, false);
+        Group group = groups == null ? null : groups.groups.get(name);
+        return group == null ? 0 : group.members.size();
+    }
+
+    /**
+     * Forget the sorters of an unloaded chunk. Its members are removed by the
+     * TesseractCache.
+     *
+     * @param world
+     * @param chunkX
+     * @param chunkZ
+     */
+    void unloadSorters(final UUID world, final int chunkX, final int chunkZ) {
+        WorldGroups groups = getWorld(world, false);
+        if (groups == null || groups.sorters.isEmpty()) {
+            return;
+        }
+        long chunkKey = BlockKey.chunk(chunkX, chunkZ);
+        long[] keys = new long[groups.sorters.size()];
+        int[] count = {0};
+        groups.sorters.forEach((key, name) -> {
+            if (BlockKey.chunk(BlockKey.x(key) >> 4, BlockKey.z(key) >> 4) == chunkKey) {
+                keys[count[0]++] = key;
+            }
+        });
+        for (int i = 0; i < count[0]; i++) {
+            groups.sorters.remove(keys[i]);
+        }
+    }
+
+    void unloadWorld(final UUID world) {
+        worlds.remove(world);
+    }
+
+    void clear() {
+        worlds.clear();
+    }
+
+    /**
+     * @return the number of groups and the number of sorters across all
+     * worlds
+     */
+    int[] counts() {
+        int[] counts = new int[2];
+        for (WorldGroups world : worlds.values()) {
+            counts[0] += world.groups.size();
+            counts[1] += world.sorters.size();
+        }
+        return counts;
+    }
+
+    private WorldGroups getWorld(final UUID world, final boolean create) {
+        WorldGroups groups = worlds.get(world);
+        if (groups == null && create) {
+            groups = new WorldGroups();
+            worlds.put(world, groups);
+        }
+        return groups;
+    }
+
+    private static final class WorldGroups {
+
+        private final HashMap<String, Group> groups = new HashMap<>();
+        private final LongObjectMap<Member> members = new LongObjectMap<>();
+        private final LongObjectMap<String> sorters = new LongObjectMap<>();
+    }
+
+    private static final class Member {
+
+        private final Block block;
+        private final SignContents contents;
+        private final Group group;
+        private boolean touched;
+
+        private Member(Block block, SignContents contents, Group group) {
+            this.block = block;
+            this.contents = contents;
+            this.group = group;
+        }
+    }
+
+    static final class Group {
+
+        private final String name;
+        private final LongObjectMap<Member> members = new LongObjectMap<>();
+        private final EnumMap<Material, ArrayDeque<Member>> routes = new EnumMap<>(Material.class);
+        private final ArrayDeque<Member> empty = new ArrayDeque<>();
+        private final ArrayList<Member> vaults = new ArrayList<>();
+        private final ArrayList<Member> touched = new ArrayList<>();
+        private boolean dirty = true;
+
+        private Group(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Route every stack without item meta from the inventory into the
+         * group, in one pass over a single contents read. Every member that
+         * received items is updated once. If called on a Block inventory, the
+         * BlockState must be updated after completion.
+         *
+         * @param inventory
+         * @return true if any items have been routed
+         */
+        boolean sort(final Inventory inventory) {
+            ItemStack[] contents = inventory.getContents();
+            for (int i = 0; i < contents.length; i++) {
+                ItemStack stack = contents[i];
+                if (stack == null || stack.getType() == Material.AIR || stack.hasItemMeta()) {
+                    continue;
+                }
+                long stored = store(stack.getType(), stack.getAmount());
+                if (stored == stack.getAmount()) {
+                    contents[i] = null;
+                } else if (stored > 0) {
+                    stack.setAmount(stack.getAmount() - (int) stored);
+                }
+            }
+            if (touched.isEmpty()) {
+                return false;
+            }
+            inventory.setContents(contents);
+            for (Member member : touched) {
+                member.touched = false;
+                member.contents.update(member.block);
+            }
+            touched.clear();
+            return true;
+        }
+
+        private long store(final Material material, final int count) {
+            long stored = 0;
+            Member member;
+            while (stored < count && (member = route(material)) != null) {
+                if (isPresent(member)) {
+                    long added = ((Tesseract) member.contents).store(material, count - stored);
+                    touch(member, added);
+                    stored += added;
+                    if (stored == count) {
+                        break;
+                    }
+                }
+                // Full or gone, so the rest goes to the next Tesseract of the material
+                routes.get(material).poll();
+            }
+            for (int i = 0; i < vaults.size() && stored < count; i++) {
+                Member vault = vaults.get(i);
+                if (isPresent(vault)) {
+                    long added = ((Vault) vault.contents).add(material, count - stored);
+                    touch(vault, added);
+                    stored += added;
+                }
+            }
+            return stored;
+        }
+
+        /**
+         * Members are only rescanned when the group changed, or when a
+         * Tesseract no longer holds the material it was routed for.
+         *
+         * @param material
+         * @return the next Tesseract for the material, or null if there is
+         * none and no empty Tesseract is left
+         */
+        private Member route(final Material material) {
+            if (dirty) {
+                rebuild();
+            }
+            ArrayDeque<Member> tesseracts = routes.get(material);
+            Member member = tesseracts == null ? null : tesseracts.peek();
+            if (member != null && !holds(member, material)) {
+                // Emptied or refilled by players since the last rebuild
+                rebuild();
+                tesseracts = routes.get(material);
+                member = tesseracts == null ? null : tesseracts.peek();
+            }
+            if (member != null) {
+                return member;
+            }
+            while ((member = empty.poll()) != null) {
+                if (member.contents.isEmpty()) {
+                    if (tesseracts == null) {
+                        tesseracts = new ArrayDeque<>();
+                        routes.put(material, tesseracts);
+                    }
+                    tesseracts.add(member);
+                    return member;
+                }
+            }
+            return null;
+        }
+
+        private void rebuild() {
+            routes.clear();
+            empty.clear();
+            vaults.clear();
+            members.forEach((key, member) -> {
+                if (member.contents instanceof Vault) {
+                    vaults.add(member);
+                } else if (member.contents.isEmpty()) {
+                    empty.add(member);
+                } else {
+                    Tesseract tesseract = (Tesseract) member.contents;
+                    // Full Tesseracts take nothing until the next rescan
+                    if (tesseract.getAmount() < Tesseract.getCapacity(tesseract.getMaterial())) {
+                        routes.computeIfAbsent(tesseract.getMaterial(), material -> new ArrayDeque<>()).add(member);
+                    }
+                }
+            });
+            dirty = false;
+        }
+
+        private void touch(final Member member, final long stored) {
+            if (stored > 0 && !member.touched) {
+                member.touched = true;
+                touched.add(member);
+            }
+        }
+
+        /**
+         * Signs that disappeared without a BlockBreakEvent are dropped from
+         * the cache, and thereby from the group, instead of receiving items.
+         *
+         * @param member
+         * @return true if the member's sign still exists
+         */
+        private boolean isPresent(final Member member) {
+            if (Tesseract.isSign(member.block)) {
+                return true;
+            }
+            TesseractCache.getInstance().invalidate(member.block);
+            return false;
+        }
+
+        private static boolean holds(final Member member, final Material material) {
+            Tesseract tesseract = (Tesseract) member.contents;
+            return tesseract.isEmpty() || tesseract.getMaterial() == material;
+        }
+    }
+}
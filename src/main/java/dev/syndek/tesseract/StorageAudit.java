@@ -0,0 +1,270 @@
+package dev.syndek.tesseract;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.bukkit.ChatColor;
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Sign;
+import org.bukkit.command.CommandSender;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Enumerates every sign in the loaded chunks and totals the contents of all
+ * Tesseracts and Vaults per material, per world and per format version. The
+ * scan decodes signs straight from their tile entities rather than from the
+ * TesseractCache, so it also reports what a fresh decode would find.
+ *
+ * The scan runs on the main thread within a fixed time budget per tick. The
+ * chunks to visit are snapshotted when the audit starts; chunks unloaded since
+ * then are skipped. A chunk's tile entities are taken and decoded in one step
+ * and never held across ticks, so after the first chunk of a tick, a chunk is
+ * only started while the remaining budget covers the cost of the previous
+ * one. The report is written to the plugin's audits folder off the main
+ * thread.
+ */
+final class StorageAudit {
+
+    private static final StorageAudit INSTANCE = new StorageAudit();
+    private static final Material[] MATERIALS = Material.values();
+
+    private final ArrayDeque<ChunkRef> chunks = new ArrayDeque<>();
+    private Plugin plugin;
+    private CommandSender requester;
+    private TickBudget budget;
+    private BukkitTask task;
+
+    // Scan state
+    private String stateWorld;
+    private long lastChunkNanos;
+    private int chunkTotal;
+    private int chunksScanned;
+    private long signsScanned;
+    private long startMillis;
+
+    // Totals
+    private long[] materialItems;
+    private long[] materialStorages;
+    private long[] versionCounts;
+    private long vaultCount;
+    private long emptyCount;
+    private Map<String, long[]> worldTotals;
+
+    private StorageAudit() {
+    }
+
+    static StorageAudit getInstance() {
+        return INSTANCE;
+    }
+
+    boolean isRunning() {
+        return task != null;
+    }
+
+    /**
+     * Starts an audit of all currently loaded chunks.
+     *
+     * @param plugin
+     * @param requester receives a message when the report has been written
+     * @return false if an audit is already running
+     */
+    boolean start(final Plugin plugin, final CommandSender requester) {
+        if (isRunning()) {
+            return false;
+        }
+        this.plugin = plugin;
+        this.requester = requester;
+        budget = new TickBudget(plugin.getConfig().getLong("audit.max-micros-per-tick", 1000));
+
+        for (World world : plugin.getServer().getWorlds()) {
+            for (Chunk chunk : world.getLoadedChunks()) {
+                chunks.add(new ChunkRef(world, chunk.getX(), chunk.getZ()));
+            }
+        }
+        lastChunkNanos = 0;
+        chunkTotal = chunks.size();
+        chunksScanned = 0;
+        signsScanned = 0;
+        startMillis = System.currentTimeMillis();
+        materialItems = new long[MATERIALS.length];
+        materialStorages = new long[MATERIALS.length];
+        versionCounts = new long[TesseractCodec.VERSION_CURRENT + 1];
+        vaultCount = 0;
+        emptyCount = 0;
+        worldTotals = new LinkedHashMap<>();
+
+        task = plugin.getServer().getScheduler().runTaskTimer(plugin, this::run, 1, 1);
+        return true;
+    }
+
+    /**
+     * Aborts a running audit without writing a report.
+     */
+    void stop() {
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        chunks.clear();
+        requester = null;
+    }
+
+    /**
+     * @return a progress message for the running audit
+     */
+    String progress() {
+        return "Audit: " + chunksScanned + " of " + chunkTotal + " chunks, " + signsScanned + " signs scanned";
+    }
+
+    private void run() {
+        budget.start();
+        boolean first = true;
+        // Fetching and decoding a chunk cannot be split, so only start one the budget is expected to cover
+        while (first || budget.remainingNanos() > lastChunkNanos) {
+            first = false;
+            ChunkRef ref = chunks.poll();
+            if (ref == null) {
+                finish();
+                return;
+            }
+            chunksScanned++;
+            // Never load chunks that unloaded since the audit started
+            if (ref.world.isChunkLoaded(ref.x, ref.z)) {
+                long start = System.nanoTime();
+                scan(ref.world, ref.world.getChunkAt(ref.x, ref.z).getTileEntities());
+                lastChunkNanos = System.nanoTime() - start;
+            }
+        }
+    }
+
+    private void scan(final World world, final BlockState[] states) {
+        stateWorld = world.getName();
+        for (BlockState state : states) {
+            if (state instanceof Sign) {
+                signsScanned++;
+                scan((Sign) state);
+            }
+        }
+    }
+
+    private void scan(final Sign sign) {
+        long[] world = worldTotals.get(stateWorld);
+        if (world == null) {
+            world = new long[3];
+            worldTotals.put(stateWorld, world);
+        }
+        Tesseract tesseract = Tesseract.of(sign);
+        if (tesseract != null) {
+            versionCounts[tesseract.getFormatVersion()]++;
+            world[0]++;
+            if (tesseract.isEmpty()) {
+                emptyCount++;
+                return;
+            }
+            int ordinal = tesseract.getMaterial().ordinal();
+            materialItems[ordinal] += tesseract.getAmount();
+            materialStorages[ordinal]++;
+            world[2] += tesseract.getAmount();
+            return;
+        }
+        Vault vault = Vault.of(sign);
+        if (vault != null) {
+            vaultCount++;
+            world[1]++;
+            world[2] += vault.getTotalAmount();
+            vault.addAmountsTo(materialItems);
+            for (int i = 0; i < MATERIALS.length; i++) {
+                if (vault.getAmount(MATERIALS[i]) > 0) {
+                    materialStorages[i]++;
+                }
+            }
+        }
+    }
+
+    private void finish() {
+        task.cancel();
+        task = null;
+        List<String> report = report();
+        CommandSender sender = requester;
+        requester = null;
+        File file = new File(new File(plugin.getDataFolder(), "audits"),
+                "audit-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()) + ".txt");
+        Plugin owner = plugin;
+        owner.getServer().getScheduler().runTaskAsynchronously(owner, () -> {
+            String message;
+            try {
+                Files.createDirectories(file.getParentFile().toPath());
+                Files.write(file.toPath(), report, StandardCharsets.UTF_8);
+                message = ChatColor.GRAY + "Tesseract audit written to " + file.getPath();
+            } catch (IOException e) {
+                owner.getLogger().warning("Could not write audit report: " + e);
+                message = ChatColor.RED + "Could not write the Tesseract audit report, see the server log.";
+            }
+            String result = message;
+            if (owner.isEnabled()) {
+                owner.getServer().getScheduler().runTask(owner, () -> sender.sendMessage(result));
+            }
+        });
+    }
+
+    private List<String> report() {
+        List<String> lines = new ArrayList<>();
+        long tesseractCount = 0;
+        for (long count : versionCounts) {
+            tesseractCount += count;
+        }
+        lines.add("Tesseract audit of " + new Date(startMillis));
+        lines.add("Scanned " + signsScanned + " signs in " + chunksScanned + " chunks in "
+                + (System.currentTimeMillis() - startMillis) / 1000 + " s");
+        lines.add("Tesseracts: " + tesseractCount + " (" + emptyCount + " empty), Vaults: " + vaultCount);
+        lines.add("");
+        lines.add("Tesseracts by format version:");
+        for (int version = TesseractCodec.VERSION_1; version < versionCounts.length; version++) {
+            lines.add("  V" + version + ": " + versionCounts[version]);
+        }
+        lines.add("");
+        lines.add("By world (Tesseracts, Vaults, items):");
+        for (Map.Entry<String, long[]> world : worldTotals.entrySet()) {
+            long[] totals = world.getValue();
+            lines.add("  " + world.getKey() + ": " + totals[0] + ", " + totals[1] + ", " + totals[2]);
+        }
+        lines.add("");
+        lines.add("By material (items, storages):");
+        List<Integer> ordinals = new ArrayList<>();
+        for (int i = 0; i < MATERIALS.length; i++) {
+            if (materialStorages[i] > 0) {
+                ordinals.add(i);
+            }
+        }
+        ordinals.sort((a, b) -> Long.compare(materialItems[b], materialItems[a]));
+        for (int ordinal : ordinals) {
+            lines.add("  " + MATERIALS[ordinal] + ": " + materialItems[ordinal] + ", " + materialStorages[ordinal]);
+        }
+        return lines;
+    }
+
+    private static final class ChunkRef {
+
+        private final World world;
+        private final int x;
+        private final int z;
+
+        private ChunkRef(World world, int x, int z) {
+            this.world = world;
+            this.x = x;
+            this.z = z;
+        }
+    }
+}
@@ -1,11 +1,5 @@
 package dev.syndek.tesseract;
 
-import java.util.EnumSet;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import org.apache.commons.lang.ArrayUtils;
-import org.bukkit.Bukkit;
-import org.bukkit.ChatColor;
 import org.bukkit.Location;
 import org.bukkit.Material;
 import org.bukkit.block.Block;
@@ -15,24 +9,18 @@ import org.bukkit.entity.Player;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.PlayerInventory;
-import org.bukkit.material.MaterialData;
-
-final class Tesseract {
-
-    private static final char[] BASE64_CHARS
-            = {'0', '1', '2', '3', '4', '5', '6', '7',
-                '8', '9', 'A', 'B', 'C', 'D', 'E', 'F',
-                'G', 'H', 'I', 'J', 'K', 'L', 'M', 'N',
-                'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V',
-                'W', 'X', 'Y', 'Z', 'a', 'b', 'c', 'd',
-                'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l',
-                'm', 'n', 'o', 'p', 'q', 'r', 's', 't',
-                'u', 'v', 'w', 'x', 'y', 'z', '+', '/'};
-    private static final Pattern STACK_NOTATION_PATTERN = Pattern.compile("^(\\d+)x(\\d{1,2})\\+(\\d{1,2})", 0);
+
+final class Tesseract implements SignContents {
+
     private static final long MAX_CAPACITY = 9999999999L;
+    private static final String[] RENDER_BUFFER = new String[4];
 
     private Material material;
     private long amount;
+    private int formatVersion = TesseractCodec.VERSION_CURRENT;
+    private boolean persisted;
+    private Material journaledMaterial;
+    private long journaledAmount;
 
     /**
      * Creates an empty Tesseract
@@ -54,6 +42,8 @@ final class Tesseract {
         }
         this.material = mat;
         this.amount = amount;
+        this.journaledMaterial = mat;
+        this.journaledAmount = amount;
     }
 
     /**
@@ -76,45 +66,152 @@ final class Tesseract {
      * inventory, the BlockState must be updated after completion
      *
      * @param inventory
-     * @param sign
+     * @param signBlock
      * @return true if any items have been deposited
      */
-    boolean depositAllAndUpdate(Inventory inventory, Sign sign) {
+    boolean depositAllAndUpdate(Inventory inventory, Block signBlock) {
         // Inventory dumping only works on non-empty Tesseracts
         if (material == Material.AIR || amount == 0) {
             return false;
         }
 
-        // Loop over each item slot
-        boolean changed = false;
-        int size = inventory.getSize();
-        for (int i = 0; i < size; i++) {
-            // Ignore empty and incompatible slots
-            ItemStack stack = inventory.getItem(i);
-            if (stack == null || !canHold(stack)) {
-                continue;
-            }
+        // Sweep all compatible storage slots in one pass over a single contents read, never armor or offhand
+        ItemStack[] contents = inventory.getStorageContents();
+        long deposited = InventoryTransfer.remove(contents, material, getCapacity() - amount);
+        if (deposited == 0) {
+            return false;
+        }
+        inventory.setStorageContents(contents);
+        amount += deposited;
+        update(signBlock);
+        return true;
+    }
 
-            // Deposit as much of the stack as possible
-            changed = true;
-            long storeAmount = Math.min(getCapacity() - amount, stack.getAmount());
-            if (stack.getAmount() > storeAmount) {
-                amount = getCapacity();
-                stack.setAmount(stack.getAmount() - (int) storeAmount);
-                inventory.setItem(i, stack);
-            } else {
-                amount += stack.getAmount();
-                inventory.setItem(i, new ItemStack(Material.AIR));
-            }
+    /**
+     * Deposits the compatible items of every shulker box in a player's
+     * inventory as one operation, with a single sign update.
+     *
+     * @param inventory
+     * @param signBlock
+     * @return true if any items have been deposited
+     */
+    boolean depositAllFromShulkersAndUpdate(PlayerInventory inventory, Block signBlock) {
+        if (material == Material.AIR || amount == 0) {
+            return false;
         }
+        boolean changed = ShulkerTransfer.forEachShulker(inventory, contents -> {
+            long deposited = InventoryTransfer.remove(contents, material, getCapacity() - amount);
+            amount += deposited;
+            return deposited > 0;
+        });
         if (changed) {
-            update(sign);
+            update(signBlock);
         }
         return changed;
     }
 
-    void depositAllAndUpdate(Tesseract other, Sign sign, boolean singleStack) {
+    /**
+     * Fills every shulker box in a player's inventory from the Tesseract as
+     * one operation, with a single sign update.
+     *
+     * @param inventory
+     * @param signBlock
+     * @return true if any items have been withdrawn
+     */
+    boolean fillShulkersAndUpdate(PlayerInventory inventory, Block signBlock) {
+        if (isEmpty()) {
+            return false;
+        }
+        boolean changed = ShulkerTransfer.forEachShulker(inventory, contents -> {
+            long added = amount > 0 ? InventoryTransfer.add(contents, material, amount) : 0;
+            amount -= added;
+            return added > 0;
+        });
+        if (changed) {
+            update(signBlock);
+        }
+        return changed;
+    }
+
+    /**
+     * Moves the contents of another Tesseract into this one as a single
+     * arithmetic operation. The transfer is clamped to this Tesseract's
+     * capacity, and to one stack if requested. Both signs are updated.
+     *
+     * @param other the Tesseract to take items from
+     * @param otherSignBlock
+     * @param signBlock
+     * @param singleStack
+     * @return the number of items moved
+     */
+    long depositAllAndUpdate(Tesseract other, Block otherSignBlock, Block signBlock, boolean singleStack) {
+        // Only non-empty Tesseracts of a compatible material can be drained
+        if (other == this || other.isEmpty() || (!isEmpty() && material != other.material)) {
+            return 0;
+        }
+        if (isEmpty()) {
+            material = other.material;
+            amount = 0;
+        }
+
+        long transferAmount = Math.min(other.amount, getCapacity() - amount);
+        if (singleStack) {
+            transferAmount = Math.min(transferAmount, material.getMaxStackSize());
+        }
+        if (transferAmount <= 0) {
+            return 0;
+        }
+        amount += transferAmount;
+        other.amount -= transferAmount;
+        if (other.amount == 0) {
+            other.material = Material.AIR;
+        }
+        other.update(otherSignBlock);
+        update(signBlock);
+        return transferAmount;
+    }
+
+    /**
+     * Stores items of the given material, adopting the material if the
+     * Tesseract is empty. The sign must be updated afterwards.
+     *
+     * @param mat
+     * @param count
+     * @return the number of items stored, limited by the capacity
+     */
+    long store(Material mat, long count) {
+        if (isEmpty()) {
+            material = mat;
+            amount = 0;
+        } else if (material != mat) {
+            return 0;
+        }
+        long stored = Math.min(count, getCapacity() - amount);
+        if (stored <= 0) {
+            if (amount == 0) {
+                material = Material.AIR;
+            }
+            return 0;
+        }
+        amount += stored;
+        return stored;
+    }
 
+    /**
+     * Removes items of the given material. The sign must be updated
+     * afterwards.
+     *
+     * @param mat
+     * @param count
+     * @return the number of items removed, limited by the amount stored
+     */
+    long take(Material mat, long count) {
+        if (isEmpty() || material != mat || count <= 0) {
+            return 0;
+        }
+        long taken = Math.min(count, amount);
+        amount -= taken;
+        return taken;
     }
 
     /**
@@ -123,10 +220,10 @@ final class Tesseract {
      *
      * @param inventory
      * @param singleItem
-     * @param sign
+     * @param signBlock
      * @return true if any items have been deposited
      */
-    boolean depositHeldItemAndUpdate(PlayerInventory inventory, boolean singleItem, Sign sign) {
+    boolean depositHeldItemAndUpdate(PlayerInventory inventory, boolean singleItem, Block signBlock) {
         ItemStack stack = inventory.getItemInMainHand();
         // Handle the held ItemStack. If it can't be held, we skip to handling the remaining items in the inventory if necessary.
         if (canHold(stack)) {
@@ -147,7 +244,7 @@ final class Tesseract {
                 amount += stack.getAmount();
                 inventory.setItemInMainHand(null);
             }
-            update(sign);
+            update(signBlock);
             return true;
         }
         return false;
@@ -157,10 +254,10 @@ final class Tesseract {
      * Withdraws items from the Tesseract and spawns the item stack in the
      * provided Sign's location.
      *
-     * @param sign
+     * @param signBlock
      * @param singleItem
      */
-    void dispenseAndUpdate(Sign sign, boolean singleItem) {
+    void dispenseAndUpdate(Block signBlock, boolean singleItem) {
         // Don't try to withdraw items if this Tesseract is empty, or there are no items being withdrawn.
         if (isEmpty() || amount <= 0) {
             return;
@@ -168,40 +265,58 @@ final class Tesseract {
         // Clamp withdrawal amount down to safe amount.
         long dispenseAmount = singleItem ? 1 : Math.min(amount, material.getMaxStackSize());
         amount -= dispenseAmount;
-        final Item item = sign.getWorld().dropItem(sign.getLocation().add(0.5, 0.5, 0.5), new ItemStack(material, (int) dispenseAmount));
+        final Item item = signBlock.getWorld().dropItem(signBlock.getLocation().add(0.5, 0.5, 0.5), new ItemStack(material, (int) dispenseAmount));
         item.setPickupDelay(0);
-        update(sign);
+        update(signBlock);
     }
 
-    void fillInventoryAndUpdate(Inventory inv, Sign sign, boolean singleStack) {
-        // Don't try to withdraw items if this Tesseract is empty, or there are no items being withdrawn.
+    /**
+     * Withdraws items from the Tesseract straight into a player's inventory.
+     * Items that do not fit are spawned as a single stack at the sign.
+     *
+     * @param inventory
+     * @param signBlock
+     * @param singleItem
+     */
+    void withdrawToInventoryAndUpdate(PlayerInventory inventory, Block signBlock, boolean singleItem) {
         if (isEmpty() || amount <= 0) {
             return;
         }
-        // Clamp withdrawal amount down to safe amount.
-        long dispenseAmount = Math.min(amount, getInventoryCapacity(inv, material));
-        if (singleStack) {
-            dispenseAmount = Math.min(dispenseAmount, material.getMaxStackSize());
+        long withdrawAmount = singleItem ? 1 : Math.min(amount, material.getMaxStackSize());
+        long overflow = addItemsToInventory(inventory, material, withdrawAmount);
+        amount -= withdrawAmount;
+        if (overflow > 0) {
+            final Item item = signBlock.getWorld().dropItem(signBlock.getLocation().add(0.5, 0.5, 0.5), new ItemStack(material, (int) overflow));
+            item.setPickupDelay(0);
         }
-        addItemsToInventory(inv, material, dispenseAmount);
-        amount -= dispenseAmount;
-        update(sign);
+        update(signBlock);
     }
 
-    /*
-    void fillKleinBottleAndUpdate(Sign sign, Tesseract tesseract, boolean singleStack) {
+    /**
+     * Withdraws as many items as fit into the provided inventory.
+     *
+     * @param inv
+     * @param signBlock
+     * @param singleStack
+     * @return true if any items have been withdrawn
+     */
+    boolean fillInventoryAndUpdate(Inventory inv, Block signBlock, boolean singleStack) {
         // Don't try to withdraw items if this Tesseract is empty, or there are no items being withdrawn.
         if (isEmpty() || amount <= 0) {
-            return;
+            return false;
         }
         // Clamp withdrawal amount down to safe amount.
-        long dispenseAmount = singleItem ? 1 : Math.min(amount, material.getMaxStackSize());
+        long dispenseAmount = singleStack ? Math.min(amount, material.getMaxStackSize()) : amount;
+        dispenseAmount -= addItemsToInventory(inv, material, dispenseAmount);
+        if (dispenseAmount <= 0) {
+            return false;
+        }
         amount -= dispenseAmount;
-        final Item item = sign.getWorld().dropItem(sign.getLocation().add(0.5, 0.5, 0.5), new ItemStack(material, (int) dispenseAmount));
-        item.setPickupDelay(0);
-        update(sign);
+        update(signBlock);
+        return true;
     }
-     */
+
+    @Override
     public boolean isEmpty() {
         return amount == 0 || material == Material.AIR;
     }
@@ -231,28 +346,128 @@ final class Tesseract {
     }
 
     /**
-     * Write the state of the Tesseract to a sign.
+     * Schedule the state of the Tesseract to be written to the sign at the
+     * given block. Writes are coalesced by the SignWriteQueue and happen at
+     * most once per tick, so callers may update after every operation. The
+     * change since the last update is journaled right away, and passed on to
+     * the ChangeDispatcher.
+     *
+     * @param signBlock
+     */
+    @Override
+    public void update(Block signBlock) {
+        if (material != journaledMaterial || amount != journaledAmount) {
+            Journal journal = Journal.getInstance();
+            ChangeDispatcher changes = ChangeDispatcher.getInstance();
+            if (material != journaledMaterial && journaledAmount > 0) {
+                journal.record(signBlock, Journal.TYPE_TESSERACT, journaledMaterial, -journaledAmount, 0);
+                changes.record(signBlock, journaledMaterial, journaledAmount, 0);
+                journaledAmount = 0;
+            }
+            if (material != Material.AIR) {
+                journal.record(signBlock, Journal.TYPE_TESSERACT, material, amount - journaledAmount, amount);
+                changes.record(signBlock, material, journaledAmount, amount);
+            }
+            journaledMaterial = material;
+            journaledAmount = amount;
+        }
+        SignWriteQueue.getInstance().markDirty(signBlock, this);
+    }
+
+    /**
+     * Write the state of the Tesseract to a sign immediately. The binary
+     * record is stored first, then the text is rendered from the same state.
+     * Only lines whose text differs are set, and the sign is only updated if
+     * the record or any line changed. The update skips physics, since sign
+     * contents have no effect on neighbours.
      *
      * @param sign
+     * @return true if the sign has changed
      */
-    public void update(Sign sign) {
-        sign.setLine(0, ChatColor.DARK_BLUE + "[Tesseract]");
-        sign.setLine(3, "");
+    @Override
+    public boolean update(Sign sign) {
+        boolean changed = TesseractStorage.write(sign, material, amount);
+        persisted = TesseractStorage.isEnabled();
+
+        String[] lines = RENDER_BUFFER;
+        TesseractCodec.encode(material, amount, lines);
+        formatVersion = TesseractCodec.VERSION_CURRENT;
+
+        for (int i = 0; i < lines.length; i++) {
+            if (!lines[i].equals(sign.getLine(i))) {
+                sign.setLine(i, lines[i]);
+                changed = true;
+            }
+        }
+        if (changed) {
+            sign.update(true, false);
+        }
+        return changed;
+    }
 
-        if (isEmpty()) {
-            sign.setLine(1, "EMPTY");
-            sign.setLine(2, "0");
-        } else {
-            // Even if the name of the material is cut off in-game,
-            // The sign's data will retain the full string.
-            // We trust that this will not be optimized away anytime soon
-            sign.setLine(1, material.toString());
-            sign.setLine(2, encodeStackNotation(amount, material.getMaxStackSize()));
+    Material getMaterial() {
+        return material;
+    }
+
+    /**
+     * Replace the contents, e.g. to restore them from the journal. The sign
+     * must be updated afterwards.
+     *
+     * @param material
+     * @param amount
+     */
+    void setContents(Material material, long amount) {
+        if (material == null || amount <= 0) {
+            material = Material.AIR;
+            amount = 0;
         }
-        sign.update(true);
+        this.material = material;
+        this.amount = amount;
+    }
+
+    long getAmount() {
+        return amount;
+    }
+
+    /**
+     * The encoding scheme this Tesseract was read from. Becomes the current
+     * version once the Tesseract has been written back to its sign.
+     *
+     * @return
+     */
+    int getFormatVersion() {
+        return formatVersion;
+    }
+
+    void setFormatVersion(int formatVersion) {
+        this.formatVersion = formatVersion;
+    }
+
+    /**
+     * Whether this Tesseract was read from or written to a binary record.
+     * Tesseracts only known from sign text still need to be migrated.
+     *
+     * @return
+     */
+    @Override
+    public boolean isPersisted() {
+        return persisted;
+    }
+
+    void setPersisted(boolean persisted) {
+        this.persisted = persisted;
     }
 
     private long getCapacity() {
+        return getCapacity(material);
+    }
+
+    /**
+     * @param material
+     * @return the maximum number of items of the material a Tesseract or a
+     * Vault can hold
+     */
+    static long getCapacity(final Material material) {
         if (material == Material.AIR) {
             return 999999999L * 64L + 63L;
         } else if (material.getMaxStackSize() == 1) {
@@ -262,33 +477,22 @@ final class Tesseract {
         }
     }
 
-    private static long getInventoryCapacity(Inventory inv, Material mat) {
-        long cap = 0;
-        for (int i = 0; i < inv.getSize(); i++) {
-            ItemStack is = inv.getItem(i);
-            if (is == null || is.getType() == Material.AIR) {
-                cap += mat.getMaxStackSize();
-            } else if (is.getType() == mat && !is.hasItemMeta()) {
-                cap += mat.getMaxStackSize() - is.getAmount();
-            }
-        }
-        return cap;
-    }
-
-    private static long addItemsToInventory(Inventory inv, Material mat, long amount) {
-        for (int i = 0; i < inv.getSize() && amount > 0; i++) {
-            long addAmount = 0;
-            ItemStack is = inv.getItem(i);
-            if (is == null || is.getType() == Material.AIR) {
-                addAmount = Math.min(amount, mat.getMaxStackSize());
-                inv.setItem(i, new ItemStack(mat, (int) addAmount));
-            } else if (is.getType() == mat && !is.hasItemMeta()) {
-                addAmount = Math.min(amount, mat.getMaxStackSize() - is.getAmount());
-                inv.setItem(i, new ItemStack(mat, is.getAmount() + (int) addAmount));
-            }
-            amount -= addAmount;
+    /**
+     * Adds items to the storage slots of an inventory, reading and committing
+     * the contents only once.
+     *
+     * @param inv
+     * @param mat
+     * @param amount
+     * @return the number of items that did not fit
+     */
+    static long addItemsToInventory(Inventory inv, Material mat, long amount) {
+        ItemStack[] contents = inv.getStorageContents();
+        long added = InventoryTransfer.add(contents, mat, amount);
+        if (added > 0) {
+            inv.setStorageContents(contents);
         }
-        return amount;
+        return amount - added;
     }
 
     /**
@@ -351,246 +555,40 @@ final class Tesseract {
      * Check if the given block meets all criteria for a valid Tesseract. - The
      * block must be a sign according to isSign(Block) - The sign must contain
      * the top line [Tesseract] in DARK_BLUE - The sign must match any official
-     * encoding scheme (V1-V4)
+     * encoding scheme (V1-V4). Answered by the TesseractCache, without a
+     * BlockState snapshot.
      *
      * @param block
      * @return
      */
     public static boolean isTesseract(Block block) {
-        if (!isSign(block)) {
-            return false;
-        }
-        Sign sign = (Sign) block.getState();
-        return isTesseractV4(sign) || isTesseractV3(sign) || isTesseractV2(sign) || isTesseractV1(sign);
+        return TesseractCache.getInstance().isTesseract(block);
     }
 
     /**
-     * Create a Tesseract based on the contents of a sign. The sign must contain
-     * a valid Tesseract encoding according to isTesseract(Sign). Supports all
+     * Create a Tesseract based on the contents of a sign. Supports all
      * encoding schemes ever published since 2012.
      *
      * @param sign
-     * @return
+     * @return the Tesseract, or null if the sign is not a valid Tesseract
      */
     public static Tesseract of(final Sign sign) {
-        // Attempt to parse
-        if (isTesseractV4(sign)) {
-            return ofV4(sign);
-        }
-        if (isTesseractV3(sign)) {
-            return ofV3(sign);
-        }
-        if (isTesseractV2(sign)) {
-            return ofV2(sign);
-        }
-        if (isTesseractV1(sign)) {
-            return ofV1(sign);
-        }
-
         // Ignore non-tesseracts entirely.
         // TODO: Add error message if top line matches?
-        return null;
-    }
-
-    /*
-        Tesseract V4 encoding scheme (October 2019):
-    
-        (1) &1[Tesseract]
-        (2) MATERIAL
-        (3) AxB+C or A
-        (4)
-    
-        A = Number of stacks if material is stackable, or number of items
-        B = Max stack size of material contained
-        C = Number of items % stack size
-     */
-    private static boolean isTesseractV4(Sign sign) {
-        return (sign.getLine(0).equals(ChatColor.DARK_BLUE + "[Tesseract]")
-                && sign.getLine(3).isEmpty()
-                && (sign.getLine(2).matches("\\d+") || sign.getLine(2).matches("^(\\d+)x(\\d{1,2})\\+\\d{1,2}$"))
-                && (sign.getLine(1).equals("EMPTY") || Material.valueOf(sign.getLine(1)) != null));
-    }
-
-    private static Tesseract ofV4(Sign sign) {
-        if (sign.getLine(1).equals("EMPTY")) {
-            return new Tesseract();
-        }
-
-        Material mat = Material.valueOf(sign.getLine(1));
-        long amount = parseStackNotation(sign.getLine(2));
-        if (mat == null || amount == -1) {
-            return null;
-        }
-        return new Tesseract(mat, amount);
-    }
-
-    /*
-        Tesseract V3 encoding scheme (Early 2019):
-    
-        (1) &1[Tesseract]
-        (2) -
-        (3) MATERIAL
-        (4) Number of items (Base 10)
-    
-     */
-    private static boolean isTesseractV3(Sign sign) {
-        return (sign.getLine(0).equals(ChatColor.DARK_BLUE + "[Tesseract]")
-                && sign.getLine(1).equals("-")
-                && sign.getLine(3).matches("^\\d+$")
-                && (sign.getLine(2).equals("EMPTY") || Material.valueOf(sign.getLine(2)) != null));
-    }
-
-    private static Tesseract ofV3(Sign sign) {
-        if (sign.getLine(2).equals("EMPTY")) {
-            return new Tesseract();
-        }
-
-        Material mat = Material.valueOf(sign.getLine(2));
-        long amount = Long.parseLong(sign.getLine(3));
-        if (mat == null || amount == -1) {
-            return null;
-        }
-        return new Tesseract(mat, amount);
-    }
-
-    /*
-        Tesseract V2 encoding scheme (2017):
-    
-        (1) &1[Tess&1eract]
-        (2) MATERIAL
-        (3) Ax64+B
-        (4) [base64]
-    
-        (4) fully contains the Tesseract's state as a 90-bit structure encoded in base64.
-            Encoding is MSB (bit 89) first. Fields:
-            Bit 89-27: Item amount (Long.MAX_VALUE)
-            Bit 26-15: Item material ID
-            Bit 14-0: Item damage value
-     */
-    private static boolean isTesseractV2(Sign sign) {
-        return (sign.getLine(0).equals(ChatColor.DARK_BLUE + "[Tess" + ChatColor.DARK_BLUE + "eract]")
-                && sign.getLine(2).matches("^(\\d+)x64\\+\\d{1,2}$")
-                && sign.getLine(3).matches("^[0-9A-Za-z\\+/]{15}$"));
-    }
-
-    private static Tesseract ofV2(Sign sign) {
-        String dataField = sign.getLine(3);
-        long upperBits = parseLong64(dataField, 0, 7);
-        long lowerBits = parseLong64(dataField, 7, 15);
-
-        long legacyItemId = ((lowerBits >> 15) & 0xFFF);
-        long legacyDamage = (lowerBits) & 0x7FFFL;
-        long amount = ((upperBits << 21) & 0x7FFFFFFFFFE00000L) | ((lowerBits >> 27) & 0x1FFFFF);
-
-        return new Tesseract(legacyItemId, legacyDamage, amount);
-    }
-
-    /*
-        Tesseract V1 encoding (2012):
-    
-        (1) &1[Tesseract]
-        (2) MATERIAL
-        (3) Ax64+B
-        (4) [base16]
-    
-        (4) fully contains the Tesseract's state as a 60-bit structure encoded in base16.
-            Encoding is MSB (bit 59) first. Fields:
-            Bit 59-32: Item amount (2^28)
-            Bit 31-16: Item material ID
-            Bit 15-0: Item damage value
-     */
-    private static boolean isTesseractV1(Sign sign) {
-        return (sign.getLine(0).equals(ChatColor.DARK_BLUE + "[Tesseract]")
-                && sign.getLine(2).matches("^(\\d+)x64\\+\\d{1,2}$")
-                && sign.getLine(3).matches("^[0-9A-Fa-f]{15}$")
-                && Material.valueOf(sign.getLine(1)) != null);
-    }
-
-    private static Tesseract ofV1(Sign sign) {
-        String dataField = sign.getLine(3);
-        if (!dataField.matches("^[0-9A-Fa-f]{15}")) {
-            return null;
-        }
-        long dataBits = Long.parseLong(sign.getLine(3), 16);
-
-        long legacyItemId = ((dataBits >> 16) & 0xFFFF);
-        long legacyDamage = (dataBits) & 0xFFFF;
-        long amount = dataBits >> 32;
-
-        return new Tesseract(legacyItemId, legacyDamage, amount);
-    }
-
-    /**
-     * Formats the number of items in a Tesseract in stacks+items. Respects the
-     * contained material's stack size. Amounts of unstackable items are
-     * displayed as simple natural numbers.
-     *
-     * @param amount
-     * @param stackSize
-     * @return
-     */
-    private static String encodeStackNotation(long amount, long stackSize) {
-        if (stackSize == 1) {
-            return String.valueOf(amount);
-        }
-        return (amount / stackSize) + "x" + stackSize + "+" + (amount % stackSize);
-    }
-
-    /**
-     * Reconstructs the true number of items from the stacks+items notation.
-     *
-     * @param amount
-     * @return
-     */
-    private static long parseStackNotation(String amount) {
-        Matcher matcher = STACK_NOTATION_PATTERN.matcher(amount);
-        if (!matcher.find()) {
-            if (amount.matches("\\d+")) {
-                return Long.parseLong(amount);
-            } else {
-                return -1;
-            }
-        }
-        String s_stacks = matcher.group(1);
-        String s_stackSize = matcher.group(2);
-        String s_items = matcher.group(3);
-        return Long.parseLong(s_stacks) * Long.parseLong(s_stackSize) + Long.parseLong(s_items);
-    }
-
-    /**
-     * Parses substrings of the Tesseract base64 encoding scheme.
-     *
-     * @param s_source
-     * @param start
-     * @param end
-     * @return the parsed bits as a long integer
-     */
-    public static long parseLong64(String s_source, int start, int end) {
-        char[] source = s_source.toCharArray();
-        long result = 0;
-        for (int i = start; i < end; i++) {
-            result |= ((long) (ArrayUtils.indexOf(BASE64_CHARS, source[i])) << (6 * (end - i - 1)));
-        }
-        return result;
+        return TesseractCodec.decode(sign);
     }
 
     /**
      * Converts the legacy item-ID/damage encoding to the modern Material
-     * encoding.
+     * encoding. Backed by the precomputed LegacyMaterials table.
      *
      * @param legacyItemId
      * @param legacyDamage
      * @return the corresponding material or null if the magic numbers cannot be
      * parsed
      */
-    @SuppressWarnings("deprecation")
     public static Material convertLegacyMaterial(long legacyItemId, long legacyDamage) {
-        for (Material i : EnumSet.allOf(Material.class)) {
-            if (i.isLegacy() && i.getId() == legacyItemId) {
-                return Bukkit.getUnsafe().fromLegacy(new MaterialData(i, (byte) legacyDamage));
-            }
-        }
-        return null;
+        return LegacyMaterials.convert(legacyItemId, legacyDamage);
     }
 
     /**
@@ -0,0 +1,466 @@
+package dev.syndek.tesseract;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.UUID;
+import org.bukkit.Chunk;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Dropper;
+import org.bukkit.block.Sign;
+import org.bukkit.plugin.Plugin;
+import org.bukkit.scheduler.BukkitTask;
+
+/**
+ * Authoritative in-memory state of every Tesseract and Vault in the loaded
+ * chunks. The cache is partitioned per world and per chunk, and each chunk
+ * partition is filled completely when the chunk is indexed. A partition also
+ * remembers the plain signs of its chunk, so lookups in an indexed chunk are
+ * answered without a BlockState snapshot, whether they hit or miss. Signs can
+ * appear without a SignChangeEvent (WorldEdit pastes, structure blocks, other
+ * plugins); a sign the partition knows neither way is decoded once on its
+ * first touch and recorded as either. A plain sign replaced without any
+ * event keeps being treated as plain until its chunk is indexed again.
+ *
+ * Loaded chunks are queued and indexed by a task that spends a bounded amount
+ * of time per tick, so a burst of chunk loads cannot cause a tick spike. When
+ * a chunk is touched before its turn, only the touched block is decoded, and
+ * the chunk moves to the front of the queue. Its partition holds the touched
+ * blocks until then, and their contents stay authoritative when the chunk is
+ * indexed. Queries over areas and materials never take a BlockState
+ * snapshot, and only see the touched blocks of chunks not indexed yet.
+ *
+ * Contents handed out by the cache are mutated in place and must be written
+ * back to their sign by the caller. Every change to the cached set is mirrored
+ * into the AdjacencyIndex and the SorterGroups.
+ */
+final class TesseractCache {
+
+    private static final TesseractCache INSTANCE = new TesseractCache();
+
+    private final HashMap<UUID, LongObjectMap<ChunkEntries>> worlds = new HashMap<>();
+    private final ArrayDeque<Chunk> indexQueue = new ArrayDeque<>();
+    private TickBudget indexBudget = new TickBudget(1000);
+    private BukkitTask indexTask;
+
+    private TesseractCache() {
+    }
+
+    static TesseractCache getInstance() {
+        return INSTANCE;
+    }
+
+    void start(final Plugin plugin) {
+        indexBudget = new TickBudget(plugin.getConfig().getLong("cache.index-micros-per-tick", 1000));
+        indexTask = plugin.getServer().getScheduler().runTaskTimer(plugin, this::indexQueued, 1, 1);
+    }
+
+    void stop() {
+        if (indexTask != null) {
+            indexTask.cancel();
+            indexTask = null;
+        }
+        indexQueue.clear();
+    }
+
+    /**
+     * Queue a freshly loaded chunk to be indexed within the per-tick budget.
+     *
+     * @param chunk
+     */
+    void queueChunk(final Chunk chunk) {
+        indexQueue.add(chunk);
+    }
+
+    /**
+     * @return the number of chunks waiting to be indexed
+     */
+    int queuedChunks() {
+        return indexQueue.size();
+    }
+
+    private void indexQueued() {
+        if (indexQueue.isEmpty()) {
+            return;
+        }
+        indexBudget.start();
+        while (!indexQueue.isEmpty() && !indexBudget.isExhausted()) {
+            Chunk chunk = indexQueue.poll();
+            // Chunks that were indexed, or unloaded, in the meantime are skipped
+            if (chunk.isLoaded() && !isIndexed(getIndexedChunk(chunk.getWorld(), chunk.getX(), chunk.getZ()))) {
+                loadChunk(chunk);
+            }
+        }
+    }
+
+    /**
+     * @param block
+     * @return true if the block is a Tesseract
+     */
+    boolean isTesseract(final Block block) {
+        return get(block) != null;
+    }
+
+    /**
+     * Visit every cached Tesseract and Vault within the given distance of a
+     * position. Chunks that are not indexed yet are not visited.
+     *
+     * @param world
+     * @param x
+     * @param y
+     * @param z
+     * @param radius
+     * @param visitor receives the block key and the contents
+     */
+    void forEachWithin(final World world, final int x, final int y, final int z, final int radius,
+                       final LongObjectMap.Visitor<SignContents> visitor) {
+        LongObjectMap<ChunkEntries> chunks = getWorld(world, false);
+        if (chunks == null || radius < 0) {
+            return;
+        }
+        int minChunkX = (x - radius) >> 4;
+        int maxChunkX = (x + radius) >> 4;
+        int minChunkZ = (z - radius) >> 4;
+        int maxChunkZ = (z + radius) >> 4;
+        long radiusSquared = (long) radius * radius;
+        LongObjectMap.Visitor<SignContents> filter = (key, contents) -> {
+            long dx = BlockKey.x(key) - x;
+            long dy = BlockKey.y(key) - y;
+            long dz = BlockKey.z(key) - z;
+            if (dx * dx + dy * dy + dz * dz <= radiusSquared) {
+                visitor.visit(key, contents);
+            }
+        };
+        // Probe the covered chunks, or walk all indexed chunks if there are fewer of them
+        long coveredChunks = (long) (maxChunkX - minChunkX + 1) * (maxChunkZ - minChunkZ + 1);
+        if (coveredChunks <= chunks.size()) {
+            for (int chunkX = minChunkX; chunkX <= maxChunkX; chunkX++) {
+                for (int chunkZ = minChunkZ; chunkZ <= maxChunkZ; chunkZ++) {
+                    ChunkEntries chunk = chunks.get(BlockKey.chunk(chunkX, chunkZ));
+                    if (chunk != null) {
+                        chunk.contents.forEach(filter);
+                    }
+                }
+            }
+        } else {
+            chunks.forEach((chunkKey, chunk) -> {
+                int chunkX = BlockKey.chunkX(chunkKey);
+                int chunkZ = BlockKey.chunkZ(chunkKey);
+                if (chunkX >= minChunkX && chunkX <= maxChunkX && chunkZ >= minChunkZ && chunkZ <= maxChunkZ) {
+                    chunk.contents.forEach(filter);
+                }
+            });
+        }
+    }
+
+    /**
+     * Visit every cached Tesseract holding the given material, and every
+     * cached Vault holding any of it, in a world.
+     *
+     * @param world
+     * @param material
+     * @param visitor receives the block key and the contents
+     */
+    void forEachHolding(final World world, final Material material, final LongObjectMap.Visitor<SignContents> visitor) {
+        LongObjectMap<ChunkEntries> chunks = getWorld(world, false);
+        if (chunks == null) {
+            return;
+        }
+        chunks.forEach((chunkKey, chunk) -> chunk.contents.forEach((key, contents) -> {
+            if (contents instanceof Tesseract
+                    ? !contents.isEmpty() && ((Tesseract) contents).getMaterial() == material
+                    : contents instanceof Vault && ((Vault) contents).getAmount(material) > 0) {
+                visitor.visit(key, contents);
+            }
+        }));
+    }
+
+    /**
+     * Visit every cached Tesseract and Vault in a loaded chunk, indexing the
+     * chunk first if it has not been indexed yet.
+     *
+     * @param chunk
+     * @param visitor receives the block key and the contents
+     */
+    void forEachInChunk(final Chunk chunk, final LongObjectMap.Visitor<SignContents> visitor) {
+        ChunkEntries entries = getIndexedChunk(chunk.getWorld(), chunk.getX(), chunk.getZ());
+        if (!isIndexed(entries)) {
+            loadChunk(chunk);
+            entries = getIndexedChunk(chunk.getWorld(), chunk.getX(), chunk.getZ());
+        }
+        entries.contents.forEach(visitor);
+    }
+
+    /**
+     * Look up the Tesseract at the given block.
+     *
+     * @param block
+     * @return the cached Tesseract, or null if the block is not a Tesseract
+     */
+    Tesseract get(final Block block) {
+        SignContents contents = getContents(block);
+        return contents instanceof Tesseract ? (Tesseract) contents : null;
+    }
+
+    /**
+     * @param block
+     * @return the cached Vault, or null if the block is not a Vault
+     */
+    Vault getVault(final Block block) {
+        SignContents contents = getContents(block);
+        return contents instanceof Vault ? (Vault) contents : null;
+    }
+
+    /**
+     * Look up the Tesseract or Vault at the given block. In a chunk that is not
+     * indexed yet, the block is decoded on its first touch.
+     *
+     * @param block
+     * @return the cached contents, or null if the block is no storage sign
+     */
+    SignContents getContents(final Block block) {
+        if (block == null) {
+            return null;
+        }
+        ChunkEntries chunk = getChunk(block);
+        long key = BlockKey.of(block);
+        SignContents contents = chunk.contents.get(key);
+        // Guard against signs that disappeared without a BlockBreakEvent (explosions, fire, plugins)
+        if (contents != null && !Tesseract.isSign(block)) {
+            chunk.contents.remove(key);
+            AdjacencyIndex.getInstance().remove(block.getWorld().getUID(), key);
+            SorterGroups.getInstance().removeMember(block.getWorld().getUID(), key);
+            return null;
+        }
+        // Signs placed without a SignChangeEvent are decoded once, on first touch
+        if (contents == null && Tesseract.isSign(block) && !chunk.plainSigns.containsKey(key)) {
+            contents = decode(block, chunk, key);
+        }
+        // Signs only known from their text are migrated to a binary record on first touch
+        if (contents != null && !contents.isPersisted() && TesseractStorage.isEnabled()) {
+            contents.update(block);
+        }
+        return contents;
+    }
+
+    /**
+     * Look up the cached Tesseract or Vault at the given position without
+     * indexing its chunk, checking the block or migrating the sign.
+     *
+     * @param world
+     * @param key
+     * @return the cached contents, or null if there are none
+     */
+    SignContents peek(final World world, final long key) {
+        ChunkEntries chunk = getIndexedChunk(world, BlockKey.x(key) >> 4, BlockKey.z(key) >> 4);
+        return chunk == null ? null : chunk.contents.get(key);
+    }
+
+    /**
+     * Decode a sign unknown to the partition of its chunk, and record it as a
+     * Tesseract or Vault or as a plain sign.
+     *
+     * @param block a sign
+     * @param chunk the partition of the block's chunk
+     * @param key
+     * @return the decoded contents, or null if the sign is no storage sign
+     */
+    private SignContents decode(final Block block, final ChunkEntries chunk, final long key) {
+        BlockState state = block.getState();
+        if (!(state instanceof Sign)) {
+            return null;
+        }
+        Sign sign = (Sign) state;
+        SignContents contents = Tesseract.of(sign);
+        if (contents == null) {
+            contents = Vault.of(sign);
+        }
+        if (!chunk.indexed) {
+            Journal.getInstance().reconcile(block.getWorld(), key, contents);
+        }
+        if (contents == null) {
+            chunk.plainSigns.put(key, Boolean.TRUE);
+            return null;
+        }
+        put(block, contents);
+        String group = TesseractStorage.readGroup(sign);
+        if (group != null) {
+            SorterGroups.getInstance().addMember(block, contents, group);
+        }
+        return contents;
+    }
+
+    /**
+     * Register a newly created Tesseract or Vault.
+     *
+     * @param block
+     * @param contents
+     */
+    void put(final Block block, final SignContents contents) {
+        long key = BlockKey.of(block);
+        ChunkEntries chunk = getChunk(block);
+        chunk.plainSigns.remove(key);
+        if (chunk.contents.put(key, contents) == null) {
+            AdjacencyIndex.getInstance().add(block.getWorld().getUID(), key);
+        }
+    }
+
+    /**
+     * Forget the state of a block. Must be called whenever a sign's text
+     * changes or a sign is removed.
+     *
+     * @param block
+     */
+    void invalidate(final Block block) {
+        ChunkEntries chunk = getIndexedChunk(block.getWorld(), block.getX() >> 4, block.getZ() >> 4);
+        if (chunk == null) {
+            return;
+        }
+        long key = BlockKey.of(block);
+        chunk.plainSigns.remove(key);
+        if (chunk.contents.remove(key) != null) {
+            AdjacencyIndex.getInstance().remove(block.getWorld().getUID(), key);
+            SorterGroups.getInstance().removeMember(block.getWorld().getUID(), key);
+        }
+    }
+
+    /**
+     * Decode every Tesseract and Vault in a chunk, and register the members
+     * and sorters of sorter groups. Replaces any previous partition, but keeps
+     * the contents it holds, as their latest state may not be written to the
+     * sign yet.
+     *
+     * @param chunk
+     */
+    void loadChunk(final Chunk chunk) {
+        HandlerMetrics metrics = Metrics.getInstance().chunkIndex;
+        long start = Metrics.getInstance().start();
+        ChunkEntries entries = new ChunkEntries();
+        entries.indexed = true;
+        LongObjectMap<SignContents> tesseracts = entries.contents;
+        UUID world = chunk.getWorld().getUID();
+        SorterGroups groups = SorterGroups.getInstance();
+        ChunkEntries previous = getWorld(chunk.getWorld(), true).put(BlockKey.chunk(chunk.getX(), chunk.getZ()), entries);
+        AdjacencyIndex index = AdjacencyIndex.getInstance();
+        if (previous != null) {
+            previous.contents.forEach((key, contents) -> {
+                index.remove(world, key);
+                groups.removeMember(world, key);
+            });
+            groups.unloadSorters(world, chunk.getX(), chunk.getZ());
+        }
+        for (BlockState state : chunk.getTileEntities()) {
+            if (state instanceof Sign) {
+                long key = BlockKey.of(state.getX(), state.getY(), state.getZ());
+                SignContents contents = previous == null ? null : previous.contents.get(key);
+                if (contents == null) {
+                    contents = Tesseract.of((Sign) state);
+                }
+                if (contents == null) {
+                    contents = Vault.of((Sign) state);
+                }
+                if (contents != null) {
+                    tesseracts.put(key, contents);
+                    String group = TesseractStorage.readGroup((Sign) state);
+                    if (group != null) {
+                        groups.addMember(state.getBlock(), contents, group);
+                    }
+                } else {
+                    entries.plainSigns.put(key, Boolean.TRUE);
+                }
+            } else if (state instanceof Dropper) {
+                String group = TesseractStorage.readGroup((Dropper) state);
+                if (group != null) {
+                    groups.addSorter(state.getBlock(), group);
+                }
+            }
+        }
+        tesseracts.forEach((key, contents) -> index.add(world, key));
+        Journal.getInstance().reconcile(chunk.getWorld(), chunk.getX(), chunk.getZ(), tesseracts);
+        metrics.record(start);
+    }
+
+    void unloadChunk(final Chunk chunk) {
+        LongObjectMap<ChunkEntries> chunks = getWorld(chunk.getWorld(), false);
+        if (chunks == null) {
+            return;
+        }
+        ChunkEntries entries = chunks.remove(BlockKey.chunk(chunk.getX(), chunk.getZ()));
+        UUID world = chunk.getWorld().getUID();
+        SorterGroups groups = SorterGroups.getInstance();
+        if (entries != null) {
+            AdjacencyIndex index = AdjacencyIndex.getInstance();
+            entries.contents.forEach((key, contents) -> {
+                index.remove(world, key);
+                groups.removeMember(world, key);
+            });
+        }
+        groups.unloadSorters(world, chunk.getX(), chunk.getZ());
+    }
+
+    void unloadWorld(final World world) {
+        worlds.remove(world.getUID());
+        AdjacencyIndex.getInstance().unloadWorld(world.getUID());
+        SorterGroups.getInstance().unloadWorld(world.getUID());
+    }
+
+    void clear() {
+        worlds.clear();
+        AdjacencyIndex.getInstance().clear();
+        SorterGroups.getInstance().clear();
+    }
+
+    /**
+     * @return the number of cached Tesseracts and Vaults across all worlds
+     */
+    int size() {
+        int[] size = {0};
+        for (LongObjectMap<ChunkEntries> world : worlds.values()) {
+            world.forEach((key, chunk) -> size[0] += chunk.contents.size());
+        }
+        return size[0];
+    }
+
+    private ChunkEntries getChunk(final Block block) {
+        ChunkEntries chunk = getIndexedChunk(block.getWorld(), block.getX() >> 4, block.getZ() >> 4);
+        if (chunk == null) {
+            // Index the chunk first thing next tick rather than outside the budget now
+            chunk = new ChunkEntries();
+            getWorld(block.getWorld(), true).put(BlockKey.chunk(block.getX() >> 4, block.getZ() >> 4), chunk);
+            indexQueue.addFirst(block.getChunk());
+        }
+        return chunk;
+    }
+
+    private static boolean isIndexed(final ChunkEntries chunk) {
+        return chunk != null && chunk.indexed;
+    }
+
+    private ChunkEntries getIndexedChunk(final World world, final int chunkX, final int chunkZ) {
+        LongObjectMap<ChunkEntries> chunks = getWorld(world, false);
+        return chunks == null ? null : chunks.get(BlockKey.chunk(chunkX, chunkZ));
+    }
+
+    private LongObjectMap<ChunkEntries> getWorld(final World world, final boolean create) {
+        LongObjectMap<ChunkEntries> chunks = worlds.get(world.getUID());
+        if (chunks == null && create) {
+            chunks = new LongObjectMap<>(256);
+            worlds.put(world.getUID(), chunks);
+        }
+        return chunks;
+    }
+
+    /**
+     * The Tesseracts and Vaults of one chunk, and the positions of its other
+     * signs.
+     */
+    private static final class ChunkEntries {
+
+        private final LongObjectMap<SignContents> contents = new LongObjectMap<>();
+        private final LongObjectMap<Boolean> plainSigns = new LongObjectMap<>();
+        // False while the partition only holds the blocks touched before indexing
+        private boolean indexed;
+    }
+}
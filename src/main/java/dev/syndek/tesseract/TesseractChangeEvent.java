@@ -0,0 +1,113 @@
+package dev.syndek.tesseract;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+import org.bukkit.World;
+import org.bukkit.event.Event;
+import org.bukkit.event.HandlerList;
+
+/**
+ * Fired once per tick with every change made to a Tesseract or Vault during
+ * the previous tick, by players, automation or the TesseractService. Each
+ * change is a (position, material, old amount, new amount) entry, in the order
+ * the changes happened. A sign changed several times during a tick has one
+ * entry per change, and a Tesseract that switches material has one entry for
+ * each material.
+ *
+ * Changes are only collected while at least one listener is registered, and
+ * a listener registered during a tick receives the changes from the next tick
+ * on. The event is not fired for ticks without changes.
+ *
+ * Entries are read by index to avoid allocating an object per change:
+ *
+ * for (int i = 0; i < event.size(); i++) {
+ *     update(event.getWorld(i), event.getX(i), event.getY(i), event.getZ(i),
+ *            event.getMaterial(i), event.getNewAmount(i));
+ * }
+ */
+public final class TesseractChangeEvent extends Event {
+
+    private static final HandlerList HANDLERS = new HandlerList();
+
+    private final int size;
+    private final World[] worlds;
+    private final long[] keys;
+    private final Material[] materials;
+    private final long[] oldAmounts;
+    private final long[] newAmounts;
+
+    TesseractChangeEvent(int size, World[] worlds, long[] keys, Material[] materials, long[] oldAmounts, long[] newAmounts) {
+        this.size = size;
+        this.worlds = worlds;
+        this.keys = keys;
+        this.materials = materials;
+        this.oldAmounts = oldAmounts;
+        this.newAmounts = newAmounts;
+    }
+
+    /**
+     * @return the number of changes in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    public World getWorld(int index) {
+        checkIndex(index);
+        return worlds[index];
+    }
+
+    public int getX(int index) {
+        checkIndex(index);
+        return BlockKey.x(keys[index]);
+    }
+
+    public int getY(int index) {
+        checkIndex(index);
+        return BlockKey.y(keys[index]);
+    }
+
+    public int getZ(int index) {
+        checkIndex(index);
+        return BlockKey.z(keys[index]);
+    }
+
+    /**
+     * @param index
+     * @return a new Location of the changed sign
+     */
+    public Location getLocation(int index) {
+        checkIndex(index);
+        return new Location(worlds[index], getX(index), getY(index), getZ(index));
+    }
+
+    public Material getMaterial(int index) {
+        checkIndex(index);
+        return materials[index];
+    }
+
+    public long getOldAmount(int index) {
+        checkIndex(index);
+        return oldAmounts[index];
+    }
+
+    public long getNewAmount(int index) {
+        checkIndex(index);
+        return newAmounts[index];
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index " + index + " out of bounds for " + size + " changes");
+        }
+    }
+
+    @Override
+    public HandlerList getHandlers() {
+        return HANDLERS;
+    }
+
+    public static HandlerList getHandlerList() {
+        return HANDLERS;
+    }
+}
@@ -0,0 +1,371 @@
+package dev.syndek.tesseract;
+
+import java.util.Arrays;
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.block.Sign;
+
+/**
+ * Reads and writes the sign text of every Tesseract encoding scheme ever
+ * published (V1-V4). Detection and decoding happen in a single scan of the
+ * four sign lines without regular expressions or exceptions, so a non-Tesseract
+ * sign is rejected after a handful of character compares.
+ *
+ * All methods must be called from the main server thread, since the encoder
+ * reuses a shared buffer.
+ */
+final class TesseractCodec {
+
+    static final int VERSION_NONE = 0;
+    static final int VERSION_1 = 1;
+    static final int VERSION_2 = 2;
+    static final int VERSION_3 = 3;
+    static final int VERSION_4 = 4;
+    static final int VERSION_CURRENT = VERSION_4;
+
+    static final String HEADER = ChatColor.DARK_BLUE + "[Tesseract]";
+    static final String HEADER_V2 = ChatColor.DARK_BLUE + "[Tess" + ChatColor.DARK_BLUE + "eract]";
+    static final String EMPTY = "EMPTY";
+
+    private static final char[] BASE64_CHARS
+            = {'0', '1', '2', '3', '4', '5', '6', '7',
+                '8', '9', 'A', 'B', 'C', 'D', 'E', 'F',
+                'G', 'H', 'I', 'J', 'K', 'L', 'M', 'N',
+                'O', 'P', 'Q', 'R', 'S', 'T', 'U', 'V',
+                'W', 'X', 'Y', 'Z', 'a', 'b', 'c', 'd',
+                'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l',
+                'm', 'n', 'o', 'p', 'q', 'r', 's', 't',
+                'u', 'v', 'w', 'x', 'y', 'z', '+', '/'};
+    private static final byte[] BASE64_VALUES = new byte[128];
+    private static final int LEGACY_DATA_LENGTH = 15;
+    private static final StringBuilder ENCODE_BUFFER = new StringBuilder(24);
+
+    static {
+        Arrays.fill(BASE64_VALUES, (byte) -1);
+        for (int i = 0; i < BASE64_CHARS.length; i++) {
+            BASE64_VALUES[BASE64_CHARS[i]] = (byte) i;
+        }
+    }
+
+    private TesseractCodec() {
+    }
+
+    /**
+     * Decodes the Tesseract stored in a sign. A binary record in the sign's
+     * PersistentDataContainer takes precedence over the text, which is only
+     * parsed for signs that have not been migrated yet.
+     *
+     * @param sign
+     * @return the decoded Tesseract, or null if the sign matches no encoding
+     * scheme
+     */
+    static Tesseract decode(final Sign sign) {
+        Tesseract stored = TesseractStorage.read(sign);
+        if (stored != null) {
+            return stored;
+        }
+        return decode(sign.getLine(0), sign.getLine(1), sign.getLine(2), sign.getLine(3));
+    }
+
+    /**
+     * Decodes the Tesseract stored in the given sign lines. The format version
+     * is determined from the header and the shape of the last line, which
+     * keeps the candidate schemes mutually exclusive: V4 leaves the last line
+     * empty, V3 stores a decimal amount there after a "-" line, V2 and V1 keep
+     * 15 characters of base64 or base16 data.
+     *
+     * @param line0
+     * @param line1
+     * @param line2
+     * @param line3
+     * @return the decoded Tesseract, or null if the lines match no encoding
+     * scheme
+     */
+    static Tesseract decode(final String line0, final String line1, final String line2, final String line3) {
+        if (line0 == null || line1 == null || line2 == null || line3 == null) {
+            return null;
+        }
+        if (HEADER.equals(line0)) {
+            if (line3.isEmpty()) {
+                return decodeV4(line1, line2);
+            }
+            if (line1.equals("-")) {
+                return decodeV3(line2, line3);
+            }
+            return decodeV1(line1, line2, line3);
+        }
+        if (HEADER_V2.equals(line0)) {
+            return decodeV2(line2, line3);
+        }
+        return null;
+    }
+
+    /*
+        Tesseract V4 encoding scheme (October 2019):
+
+        (1) &1[Tesseract]
+        (2) MATERIAL
+        (3) AxB+C or A
+        (4)
+
+        A = Number of stacks if material is stackable, or number of items
+        B = Max stack size of material contained
+        C = Number of items % stack size
+     */
+    private static Tesseract decodeV4(final String materialLine, final String amountLine) {
+        long amount = parseStackNotation(amountLine);
+        if (amount < 0) {
+            return null;
+        }
+        if (materialLine.equals(EMPTY)) {
+            return withVersion(new Tesseract(), VERSION_4);
+        }
+        Material material = Material.getMaterial(materialLine);
+        if (material == null) {
+            return null;
+        }
+        return withVersion(new Tesseract(material, amount), VERSION_4);
+    }
+
+    /*
+        Tesseract V3 encoding scheme (Early 2019):
+
+        (1) &1[Tesseract]
+        (2) -
+        (3) MATERIAL
+        (4) Number of items (Base 10)
+     */
+    private static Tesseract decodeV3(final String materialLine, final String amountLine) {
+        long amount = parseDigits(amountLine, 0, amountLine.length());
+        if (amount < 0) {
+            return null;
+        }
+        if (materialLine.equals(EMPTY)) {
+            return withVersion(new Tesseract(), VERSION_3);
+        }
+        Material material = Material.getMaterial(materialLine);
+        if (material == null) {
+            return null;
+        }
+        return withVersion(new Tesseract(material, amount), VERSION_3);
+    }
+
+    /*
+        Tesseract V2 encoding scheme (2017):
+
+        (1) &1[Tess&1eract]
+        (2) MATERIAL
+        (3) Ax64+B
+        (4) [base64]
+
+        (4) fully contains the Tesseract's state as a 90-bit structure encoded in base64.
+            Encoding is MSB (bit 89) first. Fields:
+            Bit 89-27: Item amount (Long.MAX_VALUE)
+            Bit 26-15: Item material ID
+            Bit 14-0: Item damage value
+     */
+    @SuppressWarnings("deprecation")
+    private static Tesseract decodeV2(final String amountLine, final String dataLine) {
+        if (dataLine.length() != LEGACY_DATA_LENGTH || !isLegacyStackNotation(amountLine)) {
+            return null;
+        }
+        long upperBits = parseLong64(dataLine, 0, 7);
+        long lowerBits = parseLong64(dataLine, 7, 15);
+        if (upperBits < 0 || lowerBits < 0) {
+            return null;
+        }
+
+        long legacyItemId = ((lowerBits >> 15) & 0xFFF);
+        long legacyDamage = (lowerBits) & 0x7FFFL;
+        long amount = ((upperBits << 21) & 0x7FFFFFFFFFE00000L) | ((lowerBits >> 27) & 0x1FFFFF);
+
+        return withVersion(new Tesseract(legacyItemId, legacyDamage, amount), VERSION_2);
+    }
+
+    /*
+        Tesseract V1 encoding (2012):
+
+        (1) &1[Tesseract]
+        (2) MATERIAL
+        (3) Ax64+B
+        (4) [base16]
+
+        (4) fully contains the Tesseract's state as a 60-bit structure encoded in base16.
+            Encoding is MSB (bit 59) first. Fields:
+            Bit 59-32: Item amount (2^28)
+            Bit 31-16: Item material ID
+            Bit 15-0: Item damage value
+     */
+    @SuppressWarnings("deprecation")
+    private static Tesseract decodeV1(final String materialLine, final String amountLine, final String dataLine) {
+        if (dataLine.length() != LEGACY_DATA_LENGTH || !isLegacyStackNotation(amountLine)) {
+            return null;
+        }
+        long dataBits = parseLong16(dataLine);
+        if (dataBits < 0 || Material.getMaterial(materialLine) == null) {
+            return null;
+        }
+
+        long legacyItemId = ((dataBits >> 16) & 0xFFFF);
+        long legacyDamage = (dataBits) & 0xFFFF;
+        long amount = dataBits >> 32;
+
+        return withVersion(new Tesseract(legacyItemId, legacyDamage, amount), VERSION_1);
+    }
+
+    private static Tesseract withVersion(final Tesseract tesseract, final int version) {
+        tesseract.setFormatVersion(version);
+        return tesseract;
+    }
+
+    /**
+     * Renders the current (V4) encoding of a Tesseract's contents.
+     *
+     * @param material
+     * @param amount
+     * @param lines the four sign lines to fill
+     */
+    static void encode(final Material material, final long amount, final String[] lines) {
+        lines[0] = HEADER;
+        lines[3] = "";
+        if (material == Material.AIR || amount == 0) {
+            lines[1] = EMPTY;
+            lines[2] = "0";
+        } else {
+            // Even if the name of the material is cut off in-game,
+            // The sign's data will retain the full string.
+            // We trust that this will not be optimized away anytime soon
+            lines[1] = material.toString();
+            lines[2] = encodeStackNotation(amount, material.getMaxStackSize());
+        }
+    }
+
+    /**
+     * Formats the number of items in a Tesseract in stacks+items. Respects the
+     * contained material's stack size. Amounts of unstackable items are
+     * displayed as simple natural numbers.
+     *
+     * @param amount
+     * @param stackSize
+     * @return
+     */
+    static String encodeStackNotation(long amount, long stackSize) {
+        StringBuilder buffer = ENCODE_BUFFER;
+        buffer.setLength(0);
+        if (stackSize == 1) {
+            return buffer.append(amount).toString();
+        }
+        return buffer.append(amount / stackSize)
+                .append('x').append(stackSize)
+                .append('+').append(amount % stackSize)
+                .toString();
+    }
+
+    /**
+     * Reconstructs the true number of items from the stacks+items notation
+     * (AxB+C, where B and C have one or two digits) or a plain decimal number.
+     *
+     * @param amount
+     * @return the number of items, or -1 if the notation is malformed
+     */
+    static long parseStackNotation(final String amount) {
+        int length = amount.length();
+        int x = amount.indexOf('x');
+        if (x < 0) {
+            return parseDigits(amount, 0, length);
+        }
+        int plus = amount.indexOf('+', x + 1);
+        if (plus < 0 || plus - x - 1 > 2 || length - plus - 1 > 2) {
+            return -1;
+        }
+        long stacks = parseDigits(amount, 0, x);
+        long stackSize = parseDigits(amount, x + 1, plus);
+        long items = parseDigits(amount, plus + 1, length);
+        if (stacks < 0 || stackSize < 0 || items < 0 || (stackSize > 0 && stacks > (Long.MAX_VALUE - items) / stackSize)) {
+            return -1;
+        }
+        return stacks * stackSize + items;
+    }
+
+    /**
+     * Checks the Ax64+B amount line used by the V1 and V2 schemes. The amount
+     * is only validated, since the data line holds the authoritative count.
+     *
+     * @param amount
+     * @return
+     */
+    private static boolean isLegacyStackNotation(final String amount) {
+        int x = amount.indexOf('x');
+        int length = amount.length();
+        if (x < 1 || x + 4 >= length || length - x - 4 > 2
+                || amount.charAt(x + 1) != '6' || amount.charAt(x + 2) != '4' || amount.charAt(x + 3) != '+') {
+            return false;
+        }
+        return parseDigits(amount, 0, x) >= 0 && parseDigits(amount, x + 4, length) >= 0;
+    }
+
+    /**
+     * Parses a non-empty run of decimal digits.
+     *
+     * @param source
+     * @param start
+     * @param end
+     * @return the parsed number, or -1 if the range is empty, contains a
+     * non-digit or overflows a long
+     */
+    private static long parseDigits(final String source, final int start, final int end) {
+        if (start >= end) {
+            return -1;
+        }
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            int digit = source.charAt(i) - '0';
+            if (digit < 0 || digit > 9 || result > (Long.MAX_VALUE - digit) / 10) {
+                return -1;
+            }
+            result = result * 10 + digit;
+        }
+        return result;
+    }
+
+    /**
+     * Parses substrings of the Tesseract base64 encoding scheme.
+     *
+     * @param source
+     * @param start
+     * @param end
+     * @return the parsed bits as a long integer, or -1 if the range contains
+     * characters outside the alphabet
+     */
+    static long parseLong64(final String source, final int start, final int end) {
+        long result = 0;
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            int value = c < 128 ? BASE64_VALUES[c] : -1;
+            if (value < 0) {
+                return -1;
+            }
+            result |= ((long) value) << (6 * (end - i - 1));
+        }
+        return result;
+    }
+
+    private static long parseLong16(final String source) {
+        long result = 0;
+        for (int i = 0; i < source.length(); i++) {
+            char c = source.charAt(i);
+            int value;
+            if (c >= '0' && c <= '9') {
+                value = c - '0';
+            } else if (c >= 'A' && c <= 'F') {
+                value = c - 'A' + 10;
+            } else if (c >= 'a' && c <= 'f') {
+                value = c - 'a' + 10;
+            } else {
+                return -1;
+            }
+            result = (result << 4) | value;
+        }
+        return result;
+    }
+}
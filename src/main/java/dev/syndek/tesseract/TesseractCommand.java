@@ -0,0 +1,316 @@
+package dev.syndek.tesseract;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.block.Dropper;
+import org.bukkit.block.Sign;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabExecutor;
+import org.bukkit.entity.Player;
+
+/**
+ * Administrative /tesseract command.
+ *
+ * /tesseract stats [reset]: Shows handler metrics and cache sizes, or resets
+ * the metrics.
+ *
+ * /tesseract audit [status|stop]: Starts a scan of all loaded chunks that
+ * writes a report of all stored items, or shows or stops the running scan.
+ *
+ * /tesseract group [set <name>|clear|info] [connected]: Adds the targeted
+ * Tesseract, Vault or dropper to a sorter group, removes it from its group, or
+ * shows its group. With connected, all storage signs reachable from the
+ * targeted one through adjacent storage signs are changed as well.
+ *
+ * /tesseract upgrade [dry-run|status|stop]: Rewrites all Tesseracts in legacy
+ * formats in the loaded chunks to the current format, counts them without
+ * rewriting, or shows or stops the running upgrade.
+ *
+ * /tesseract export [status|stop]: Writes a snapshot of all Tesseracts and
+ * Vaults in the loaded chunks to the snapshots folder, or shows or stops the
+ * running export.
+ *
+ * /tesseract import <file>|status|stop: Restores the Tesseracts and Vaults in
+ * the loaded chunks from a snapshot in the snapshots folder, or shows or stops
+ * the running import.
+ */
+final class TesseractCommand implements TabExecutor {
+
+    private static final TesseractCommand INSTANCE = new TesseractCommand();
+    private static final String[] SUBCOMMANDS = {"stats", "audit", "group", "upgrade", "export", "import"};
+    private static final BlockFace[] CONNECTING_FACES = {
+            BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST, BlockFace.UP, BlockFace.DOWN};
+    private static final int MAX_CONNECTED = 1024;
+    private static final int TARGET_DISTANCE = 6;
+
+    private TesseractCommand() {
+    }
+
+    static TesseractCommand getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public boolean onCommand(final CommandSender sender, final Command command, final String label, final String[] args) {
+        if (args.length == 0) {
+            return false;
+        }
+        switch (args[0].toLowerCase()) {
+            case "stats":
+                stats(sender, args);
+                return true;
+            case "audit":
+                audit(sender, args);
+                return true;
+            case "group":
+                group(sender, args);
+                return true;
+            case "upgrade":
+                upgrade(sender, args);
+                return true;
+            case "export":
+                export(sender, args);
+                return true;
+            case "import":
+                restore(sender, args);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Override
+    public List<String> onTabComplete(final CommandSender sender, final Command command, final String alias, final String[] args) {
+        if (args.length == 1) {
+            return matching(args[0], SUBCOMMANDS);
+        }
+        if (args.length == 2 && args[0].equalsIgnoreCase("stats")) {
+            return matching(args[1], "reset");
+        }
+        if (args.length == 2 && args[0].equalsIgnoreCase("audit")) {
+            return matching(args[1], "status", "stop");
+        }
+        if (args.length == 2 && args[0].equalsIgnoreCase("export")) {
+            return matching(args[1], "status", "stop");
+        }
+        if (args.length == 2 && args[0].equalsIgnoreCase("import")) {
+            return matching(args[1], "status", "stop");
+        }
+        if (args.length == 2 && args[0].equalsIgnoreCase("upgrade")) {
+            return matching(args[1], "dry-run", "status", "stop");
+        }
+        if (args[0].equalsIgnoreCase("group")) {
+            if (args.length == 2) {
+                return matching(args[1], "set", "clear", "info");
+            }
+            if (args.length == 3 && args[1].equalsIgnoreCase("clear") || args.length == 4 && args[1].equalsIgnoreCase("set")) {
+                return matching(args[args.length - 1], "connected");
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    private static void stats(final CommandSender sender, final String[] args) {
+        Metrics metrics = Metrics.getInstance();
+        if (args.length > 1 && args[1].equalsIgnoreCase("reset")) {
+            metrics.reset();
+            sender.sendMessage(ChatColor.GRAY + "Tesseract metrics reset.");
+            return;
+        }
+        sender.sendMessage(ChatColor.DARK_BLUE + "[Tesseract] " + ChatColor.GRAY + "Statistics");
+        for (String line : metrics.report()) {
+            sender.sendMessage(ChatColor.GRAY + line);
+        }
+    }
+
+    private static void audit(final CommandSender sender, final String[] args) {
+        StorageAudit audit = StorageAudit.getInstance();
+        String option = args.length > 1 ? args[1].toLowerCase() : "";
+        if (option.equals("stop")) {
+            if (audit.isRunning()) {
+                audit.stop();
+                sender.sendMessage(ChatColor.GRAY + "Tesseract audit stopped.");
+            } else {
+                sender.sendMessage(ChatColor.RED + "No Tesseract audit is running.");
+            }
+        } else if (option.equals("status") || audit.isRunning()) {
+            sender.sendMessage(ChatColor.GRAY + (audit.isRunning() ? audit.progress() : "No Tesseract audit is running."));
+        } else {
+            audit.start(TesseractPlugin.instance(), sender);
+            sender.sendMessage(ChatColor.GRAY + "Tesseract audit started. " + audit.progress());
+        }
+    }
+
+    private static void upgrade(final CommandSender sender, final String[] args) {
+        LegacyUpgrader upgrader = LegacyUpgrader.getInstance();
+        String option = args.length > 1 ? args[1].toLowerCase() : "";
+        if (option.equals("stop")) {
+            if (upgrader.isRunning()) {
+                upgrader.stop();
+                sender.sendMessage(ChatColor.GRAY + "Tesseract upgrade stopped. " + upgrader.progress());
+            } else {
+                sender.sendMessage(ChatColor.RED + "No Tesseract upgrade is running.");
+            }
+        } else if (option.equals("status") || upgrader.isRunning()) {
+            sender.sendMessage(ChatColor.GRAY + (upgrader.isRunning() ? upgrader.progress() : "No Tesseract upgrade is running."));
+        } else {
+            upgrader.start(TesseractPlugin.instance(), sender, option.equals("dry-run"), false);
+            sender.sendMessage(ChatColor.GRAY + "Tesseract upgrade started. " + upgrader.progress());
+        }
+    }
+
+    private static void export(final CommandSender sender, final String[] args) {
+        SnapshotExport export = SnapshotExport.getInstance();
+        String option = args.length > 1 ? args[1].toLowerCase() : "";
+        if (option.equals("stop")) {
+            if (export.isRunning()) {
+                export.stop();
+                sender.sendMessage(ChatColor.GRAY + "Tesseract export stopped.");
+            } else {
+                sender.sendMessage(ChatColor.RED + "No Tesseract export is running.");
+            }
+        } else if (option.equals("status") || export.isRunning()) {
+            sender.sendMessage(ChatColor.GRAY + (export.isRunning() ? export.progress() : "No Tesseract export is running."));
+        } else {
+            export.start(TesseractPlugin.instance(), sender);
+            sender.sendMessage(ChatColor.GRAY + "Tesseract export started. " + export.progress());
+        }
+    }
+
+    private static void restore(final CommandSender sender, final String[] args) {
+        SnapshotImport restore = SnapshotImport.getInstance();
+        String option = args.length > 1 ? args[1] : "";
+        if (option.equalsIgnoreCase("stop")) {
+            if (restore.isRunning()) {
+                restore.stop();
+                sender.sendMessage(ChatColor.GRAY + "Tesseract import stopped.");
+            } else {
+                sender.sendMessage(ChatColor.RED + "No Tesseract import is running.");
+            }
+        } else if (option.equalsIgnoreCase("status") || restore.isRunning()) {
+            sender.sendMessage(ChatColor.GRAY + (restore.isRunning() ? restore.progress() : "No Tesseract import is running."));
+        } else if (option.isEmpty() || option.contains("/") || option.contains("\\") || option.startsWith(".")) {
+            sender.sendMessage(ChatColor.RED + "Usage: /tesseract import <file in the snapshots folder>");
+        } else {
+            File file = new File(new File(TesseractPlugin.instance().getDataFolder(), "snapshots"), option);
+            restore.start(TesseractPlugin.instance(), sender, file.toPath());
+        }
+    }
+
+    private static void group(final CommandSender sender, final String[] args) {
+        if (!(sender instanceof Player)) {
+            sender.sendMessage(ChatColor.RED + "Only players can target sorter group members.");
+            return;
+        }
+        Block target = ((Player) sender).getTargetBlockExact(TARGET_DISTANCE);
+        boolean isDropper = target != null && target.getType() == Material.DROPPER;
+        if (target == null || !isDropper && TesseractCache.getInstance().getContents(target) == null) {
+            sender.sendMessage(ChatColor.RED + "Look at a Tesseract, Vault or dropper.");
+            return;
+        }
+        String option = args.length > 1 ? args[1].toLowerCase() : "info";
+        boolean connected = args[args.length - 1].equalsIgnoreCase("connected");
+        if (option.equals("set") && args.length > 2 && !args[2].equalsIgnoreCase("connected")) {
+            int count = setGroup(target, args[2], connected);
+            sender.sendMessage(ChatColor.GRAY + "Added " + count + (count == 1 ? " block" : " blocks") + " to sorter group " + args[2] + ".");
+        } else if (option.equals("set")) {
+            sender.sendMessage(ChatColor.RED + "Usage: /tesseract group set <name> [connected]");
+        } else if (option.equals("clear")) {
+            int count = setGroup(target, null, connected);
+            sender.sendMessage(ChatColor.GRAY + "Removed " + count + (count == 1 ? " block" : " blocks") + " from their sorter group.");
+        } else {
+            SorterGroups groups = SorterGroups.getInstance();
+            String name = isDropper ? groups.getSorterGroup(target) : groups.getMemberGroup(target);
+            if (name == null) {
+                sender.sendMessage(ChatColor.GRAY + (isDropper ? "This dropper is no sorter." : "This sign is in no sorter group."));
+            } else {
+                sender.sendMessage(ChatColor.GRAY + (isDropper ? "Sorter of group " : "Member of group ") + name + ", "
+                        + groups.size(target.getWorld().getUID(), name) + " members in loaded chunks.");
+            }
+        }
+    }
+
+    /**
+     * Stores a group in the PersistentDataContainer of a dropper or storage
+     * sign, and registers it with the SorterGroups.
+     *
+     * @param target a dropper or storage sign
+     * @param name the group, or null to clear the group
+     * @param connected whether to include the storage signs connected to a
+     * targeted sign
+     * @return the number of blocks changed
+     */
+    private static int setGroup(final Block target, final String name, final boolean connected) {
+        SorterGroups groups = SorterGroups.getInstance();
+        if (target.getType() == Material.DROPPER) {
+            BlockState state = target.getState();
+            if (!(state instanceof Dropper)) {
+                return 0;
+            }
+            if (TesseractStorage.writeGroup((Dropper) state, name)) {
+                state.update(true, false);
+            }
+            if (name == null) {
+                groups.removeSorter(target);
+            } else {
+                groups.addSorter(target, name);
+            }
+            return 1;
+        }
+
+        // Walk the storage signs reachable through adjacent storage signs, e.g. a wall of Tesseracts
+        ArrayDeque<Block> open = new ArrayDeque<>();
+        LongObjectMap<Block> seen = new LongObjectMap<>();
+        open.add(target);
+        seen.put(BlockKey.of(target), target);
+        int count = 0;
+        while (!open.isEmpty() && count < MAX_CONNECTED) {
+            Block block = open.poll();
+            SignContents contents = TesseractCache.getInstance().getContents(block);
+            if (contents == null) {
+                continue;
+            }
+            BlockState state = block.getState();
+            if (state instanceof Sign && TesseractStorage.writeGroup((Sign) state, name)) {
+                state.update(true, false);
+            }
+            if (name == null) {
+                groups.removeMember(block.getWorld().getUID(), BlockKey.of(block));
+            } else {
+                groups.addMember(block, contents, name);
+            }
+            count++;
+            if (!connected) {
+                break;
+            }
+            for (BlockFace face : CONNECTING_FACES) {
+                Block relative = block.getRelative(face);
+                // Never load chunks to follow a wall
+                if (relative.getWorld().isChunkLoaded(relative.getX() >> 4, relative.getZ() >> 4)
+                        && Tesseract.isSign(relative) && seen.put(BlockKey.of(relative), relative) == null) {
+                    open.add(relative);
+                }
+            }
+        }
+        return count;
+    }
+
+    private static List<String> matching(final String prefix, final String... options) {
+        List<String> matches = new ArrayList<>();
+        for (String option : options) {
+            if (option.startsWith(prefix.toLowerCase())) {
+                matches.add(option);
+            }
+        }
+        return matches;
+    }
+}
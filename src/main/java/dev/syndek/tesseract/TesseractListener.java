@@ -1,21 +1,15 @@
 package dev.syndek.tesseract;
 
-import com.sk89q.worldedit.bukkit.BukkitAdapter;
-import com.sk89q.worldguard.LocalPlayer;
-import com.sk89q.worldguard.WorldGuard;
-import com.sk89q.worldguard.bukkit.WorldGuardPlugin;
-import com.sk89q.worldguard.protection.regions.RegionContainer;
 import java.util.HashMap;
+import java.util.UUID;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
+import org.bukkit.Chunk;
 import org.bukkit.Material;
 import org.bukkit.block.Block;
-import org.bukkit.block.BlockFace;
-import org.bukkit.block.Container;
 import org.bukkit.block.Dropper;
 import org.bukkit.block.Hopper;
 import org.bukkit.block.ShulkerBox;
-import org.bukkit.block.Sign;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
@@ -25,27 +19,25 @@ import org.bukkit.event.block.BlockBreakEvent;
 import org.bukkit.event.block.BlockPhysicsEvent;
 import org.bukkit.event.block.SignChangeEvent;
 import org.bukkit.event.player.PlayerInteractEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.world.ChunkLoadEvent;
+import org.bukkit.event.world.ChunkUnloadEvent;
+import org.bukkit.event.world.WorldSaveEvent;
+import org.bukkit.event.world.WorldUnloadEvent;
+import org.bukkit.inventory.EquipmentSlot;
 import org.bukkit.inventory.Inventory;
 import org.bukkit.inventory.ItemStack;
 import org.bukkit.inventory.meta.BlockStateMeta;
 
 final class TesseractListener implements Listener {
 
-    private static final BlockFace[] CARDINAL_FACES = {BlockFace.NORTH, BlockFace.EAST, BlockFace.SOUTH, BlockFace.WEST};
     private static final TesseractListener INSTANCE = new TesseractListener();
-    private static final HashMap<Block, Integer> OPPER_POWER_CACHE = new HashMap<>();
-    private static final HashMap<Player, Long> DOUBLE_CLICK_TIMER = new HashMap<>();
-    private static final long DOUBLE_CLICK_MAX_MILLIS = 500;
-    private static final RegionContainer CONTAINER;
-    private static final boolean worldguard = Bukkit.getPluginManager().getPlugin("WorldGuard") != null;
-
-    static {
-        if (worldguard) {
-            CONTAINER = WorldGuard.getInstance().getPlatform().getRegionContainer();
-        } else {
-            CONTAINER = null;
-        }
-    }
+    private static final HashMap<UUID, PendingLink> PENDING_LINKS = new HashMap<>();
+    private static final long LINK_MAX_MILLIS = 30000;
+
+    private CachedProtection protection = new CachedProtection(NoProtection.INSTANCE, 0);
+    private WithdrawalMode defaultWithdrawalMode = WithdrawalMode.DROP;
+    private HashMap<String, WithdrawalMode> worldWithdrawalModes = new HashMap<>();
 
     private TesseractListener() {
     }
@@ -54,29 +46,65 @@ final class TesseractListener implements Listener {
         return INSTANCE;
     }
 
+    /**
+     * Sets the protection plugin consulted by canUseBlock.
+     *
+     * @param protection
+     */
+    void setProtection(final CachedProtection protection) {
+        this.protection = protection;
+    }
+
+    /**
+     * Sets where left click withdrawals go.
+     *
+     * @param defaultMode the mode of worlds without an entry
+     * @param worldModes modes by world name
+     */
+    void setWithdrawalModes(final WithdrawalMode defaultMode, final HashMap<String, WithdrawalMode> worldModes) {
+        this.defaultWithdrawalMode = defaultMode;
+        this.worldWithdrawalModes = worldModes;
+    }
+
     /**
      * A Tesseract can be created by anyone with the appropriate permission by
      * placing a sign with the text "[Tesseract]" in the top line. The top line
      * will turn blue and the other lines will initialize to represent an empty
-     * Tesseract.
+     * Tesseract. The text "[Vault]" creates a Vault in the same way.
      *
      * @param event
      */
     @EventHandler
     public void onTesseractCreate(final SignChangeEvent event) {
+        Metrics metrics = Metrics.getInstance();
+        long start = metrics.start();
         final String topLine = event.getLine(0);
-        if (topLine == null || !topLine.equalsIgnoreCase("[Tesseract]")) {
+        boolean vault = topLine != null && topLine.equalsIgnoreCase("[Vault]");
+        if (topLine == null || (!vault && !topLine.equalsIgnoreCase("[Tesseract]"))) {
+            metrics.create.reject();
             return;
         }
         if (!event.getPlayer().hasPermission("tesseract.create")) {
-            event.getPlayer().sendMessage(ChatColor.RED + "You do not have permission to create Tesseracts.");
-            event.setLine(0, ChatColor.DARK_RED + "[Tesseract]");
+            event.getPlayer().sendMessage(ChatColor.RED + "You do not have permission to create " + (vault ? "Vaults." : "Tesseracts."));
+            event.setLine(0, ChatColor.DARK_RED + (vault ? "[Vault]" : "[Tesseract]"));
         } else {
-            Sign sign = (Sign) event.getBlock().getState();
-            Tesseract tesseract = new Tesseract();
-            tesseract.update(sign);
+            SignContents contents = vault ? new Vault() : new Tesseract();
+            contents.update(event.getBlock());
+            TesseractCache.getInstance().put(event.getBlock(), contents);
             event.setCancelled(true);
         }
+        metrics.create.record(start);
+    }
+
+    /**
+     * Any other change of sign text may turn a cached Tesseract into a plain
+     * sign, so its cached state is dropped.
+     *
+     * @param event
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onSignChange(final SignChangeEvent event) {
+        TesseractCache.getInstance().invalidate(event.getBlock());
     }
 
     /**
@@ -85,57 +113,94 @@ final class TesseractListener implements Listener {
      * normally the max. stack size of the material is moved. If a player right
      * clicks in intervals of 500ms or less (or holds down the right mouse
      * button), each Tesseract will absorb all compatible items from the
-     * player's inventory.
+     * player's inventory. Sneak right clicking two Tesseracts in turn with an
+     * empty hand links them and moves the contents of the first into the
+     * second. Sneak clicking twice in quick succession with a Shulker Box
+     * empties or fills every Shulker Box in the player's inventory at once.
+     * Further clicks on the same Tesseract within the same tick are
+     * merged into the first, so a held button sweeps at most once per tick.
      *
      * @param event
      */
     @EventHandler
     public void onTesseractClick(final PlayerInteractEvent event) {
+        Metrics metrics = Metrics.getInstance();
+        long start = metrics.start();
         // Reject non-Tesseracts
-        if (!Tesseract.isTesseract(event.getClickedBlock())) {
+        Block block = event.getClickedBlock();
+        if (!Tesseract.isSign(block)) {
+            metrics.click.reject();
+            return;
+        }
+        SignContents contents = TesseractCache.getInstance().getContents(block);
+        if (contents == null) {
+            metrics.click.reject();
+            return;
+        }
+        // Merge repeated clicks within a tick into the transaction already made
+        if (ClickTracker.getInstance().isRepeat(event.getPlayer(), block, event.getAction())) {
+            if (event.getAction() == Action.RIGHT_CLICK_BLOCK || !contents.isEmpty()) {
+                event.setCancelled(true);
+            }
+            metrics.click.reject();
             return;
         }
+        try {
+            if (contents instanceof Vault) {
+                handleVaultClick(event, block, (Vault) contents);
+            } else {
+                handleClick(event, block, (Tesseract) contents);
+            }
+        } finally {
+            metrics.click.record(start);
+        }
+    }
 
+    private void handleClick(final PlayerInteractEvent event, final Block block, final Tesseract tesseract) {
         // Reject players lacking permission
         Player player = event.getPlayer();
-        if (!canUseBlock(player, event.getClickedBlock())) {
+        if (!canUseBlock(player, block)) {
             player.sendMessage(ChatColor.RED + "You do not have permission to use this Tesseract!");
             event.setCancelled(true);
             return;
         }
 
-        // Load Tesseract from sign text
-        Sign sign = (Sign) event.getClickedBlock().getState();
-        Tesseract tesseract = Tesseract.of(sign);
-        if (tesseract == null) {
-            return;
-        }
-
         // Decide mode of interaction and perform
         if (event.getAction() == Action.RIGHT_CLICK_BLOCK) {
             if (player.isSneaking() && Tesseract.isMaterialShulkerBox(player.getInventory().getItemInMainHand().getType())) {
+                // Double click to empty every Shulker Box in the inventory at once
+                if (ClickTracker.getInstance().isDoubleClick(player, Action.RIGHT_CLICK_BLOCK)) {
+                    tesseract.depositAllFromShulkersAndUpdate(player.getInventory(), block);
+                    event.setCancelled(true);
+                    return;
+                }
                 ItemStack is = player.getInventory().getItemInMainHand();
                 if (is.hasItemMeta() && is.getItemMeta() instanceof BlockStateMeta) {
                     BlockStateMeta blockStateMeta = (BlockStateMeta) is.getItemMeta();
                     if (blockStateMeta != null && blockStateMeta.getBlockState() instanceof ShulkerBox) {
                         ShulkerBox shulker = (ShulkerBox) blockStateMeta.getBlockState();
                         Inventory shulkerInv = shulker.getInventory();
-                        tesseract.depositAllAndUpdate(shulkerInv, sign);
+                        tesseract.depositAllAndUpdate(shulkerInv, block);
                         blockStateMeta.setBlockState(shulker);
                         is.setItemMeta(blockStateMeta);
                         player.getInventory().setItemInMainHand(is);
+                        ClickTracker.getInstance().rememberClick(player, Action.RIGHT_CLICK_BLOCK);
                         event.setCancelled(true);
                         return;
                     }
                 }
+            } else if (player.isSneaking() && player.getInventory().getItemInMainHand().getType() == Material.AIR) {
+                if (event.getHand() == EquipmentSlot.HAND) {
+                    linkOrTransfer(player, block, tesseract);
+                }
             } else if (player.isSneaking()) {
-                tesseract.depositHeldItemAndUpdate(player.getInventory(), true, sign);
-            } else if (isDoubleClick(player)) {
-                tesseract.depositAllAndUpdate(player.getInventory(), sign);
+                tesseract.depositHeldItemAndUpdate(player.getInventory(), true, block);
+            } else if (ClickTracker.getInstance().isDoubleClick(player, Action.RIGHT_CLICK_BLOCK)) {
+                tesseract.depositAllAndUpdate(player.getInventory(), block);
             } else {
-                tesseract.depositHeldItemAndUpdate(player.getInventory(), false, sign);
+                tesseract.depositHeldItemAndUpdate(player.getInventory(), false, block);
             }
-            rememberClick(player);
+            ClickTracker.getInstance().rememberClick(player, Action.RIGHT_CLICK_BLOCK);
             event.setCancelled(true);
         } else if (event.getAction() == Action.LEFT_CLICK_BLOCK) {
             // Always cancel the event if items are going to be withdrawn from the Tesseract.
@@ -148,44 +213,176 @@ final class TesseractListener implements Listener {
 
             // Sneak Left click a Tesseract with a Shulker Box to fill the Shulker with Tesseract contents
             if (player.isSneaking() && Tesseract.isMaterialShulkerBox(player.getInventory().getItemInMainHand().getType())) {
+                // Double click to fill every Shulker Box in the inventory at once
+                if (ClickTracker.getInstance().isDoubleClick(player, Action.LEFT_CLICK_BLOCK)) {
+                    tesseract.fillShulkersAndUpdate(player.getInventory(), block);
+                    event.setCancelled(true);
+                    return;
+                }
                 ItemStack is = player.getInventory().getItemInMainHand();
                 if (is.hasItemMeta() && is.getItemMeta() instanceof BlockStateMeta) {
                     BlockStateMeta blockStateMeta = (BlockStateMeta) is.getItemMeta();
                     if (blockStateMeta != null && blockStateMeta.getBlockState() instanceof ShulkerBox) {
                         ShulkerBox shulker = (ShulkerBox) blockStateMeta.getBlockState();
                         Inventory shulkerInv = shulker.getInventory();
-                        tesseract.fillInventoryAndUpdate(shulkerInv, sign, false);
+                        tesseract.fillInventoryAndUpdate(shulkerInv, block, false);
                         blockStateMeta.setBlockState(shulker);
                         is.setItemMeta(blockStateMeta);
                         player.getInventory().setItemInMainHand(is);
+                        ClickTracker.getInstance().rememberClick(player, Action.LEFT_CLICK_BLOCK);
                         event.setCancelled(true);
                         return;
                     }
                 }
             }
 
-            tesseract.dispenseAndUpdate(sign, player.isSneaking());
+            if (getWithdrawalMode(block) == WithdrawalMode.INVENTORY) {
+                tesseract.withdrawToInventoryAndUpdate(player.getInventory(), block, player.isSneaking());
+            } else {
+                tesseract.dispenseAndUpdate(block, player.isSneaking());
+            }
+            event.setCancelled(true);
+        }
+    }
+
+    /**
+     * Vaults are used like Tesseracts. Left clicking withdraws the material
+     * in the player's hand, or the first stored material if the Vault holds
+     * none of it. Sneak right clicking with a Shulker Box empties the box into
+     * the Vault, a quick second click empties every box in the inventory.
+     *
+     * @param event
+     * @param block
+     * @param vault
+     */
+    private void handleVaultClick(final PlayerInteractEvent event, final Block block, final Vault vault) {
+        Player player = event.getPlayer();
+        if (!canUseBlock(player, block)) {
+            player.sendMessage(ChatColor.RED + "You do not have permission to use this Vault!");
+            event.setCancelled(true);
+            return;
+        }
+
+        ItemStack held = player.getInventory().getItemInMainHand();
+        if (event.getAction() == Action.RIGHT_CLICK_BLOCK) {
+            if (player.isSneaking() && Tesseract.isMaterialShulkerBox(held.getType())
+                    && ClickTracker.getInstance().isDoubleClick(player, Action.RIGHT_CLICK_BLOCK)) {
+                vault.depositAllFromShulkersAndUpdate(player.getInventory(), block);
+            } else if (player.isSneaking() && Tesseract.isMaterialShulkerBox(held.getType())
+                    && held.hasItemMeta() && held.getItemMeta() instanceof BlockStateMeta) {
+                BlockStateMeta blockStateMeta = (BlockStateMeta) held.getItemMeta();
+                if (blockStateMeta.getBlockState() instanceof ShulkerBox) {
+                    ShulkerBox shulker = (ShulkerBox) blockStateMeta.getBlockState();
+                    vault.depositAllAndUpdate(shulker.getInventory(), block);
+                    blockStateMeta.setBlockState(shulker);
+                    held.setItemMeta(blockStateMeta);
+                    player.getInventory().setItemInMainHand(held);
+                }
+            } else if (player.isSneaking()) {
+                vault.depositHeldItemAndUpdate(player.getInventory(), true, block);
+            } else if (ClickTracker.getInstance().isDoubleClick(player, Action.RIGHT_CLICK_BLOCK)) {
+                vault.depositAllAndUpdate(player.getInventory(), block);
+            } else {
+                vault.depositHeldItemAndUpdate(player.getInventory(), false, block);
+            }
+            ClickTracker.getInstance().rememberClick(player, Action.RIGHT_CLICK_BLOCK);
             event.setCancelled(true);
+        } else if (event.getAction() == Action.LEFT_CLICK_BLOCK) {
+            // Don't cancel the event for empty Vaults, so that they can be broken
+            if (vault.isEmpty()) {
+                return;
+            }
+            if (getWithdrawalMode(block) == WithdrawalMode.INVENTORY) {
+                vault.withdrawToInventoryAndUpdate(player.getInventory(), block, held.getType(), player.isSneaking());
+            } else {
+                vault.dispenseAndUpdate(block, held.getType(), player.isSneaking());
+            }
+            event.setCancelled(true);
+        }
+    }
+
+    /**
+     * The first sneak right click with an empty hand selects a source
+     * Tesseract. The second one, on another Tesseract, moves as much of the
+     * source's contents as fits into the clicked Tesseract without creating
+     * any items. Clicking the source again cancels the link.
+     *
+     * @param player
+     * @param block
+     * @param tesseract
+     */
+    private void linkOrTransfer(final Player player, final Block block, final Tesseract tesseract) {
+        PendingLink link = PENDING_LINKS.remove(player.getUniqueId());
+        if (link == null || System.currentTimeMillis() - link.createdMillis > LINK_MAX_MILLIS) {
+            if (tesseract.isEmpty()) {
+                player.sendMessage(ChatColor.RED + "This Tesseract is empty.");
+                return;
+            }
+            PENDING_LINKS.put(player.getUniqueId(), new PendingLink(block));
+            player.sendMessage(ChatColor.GRAY + "Tesseract linked. Sneak right click another Tesseract with an empty hand to move its contents there.");
+            return;
+        }
+
+        Block sourceBlock = link.block;
+        if (sourceBlock.equals(block)) {
+            player.sendMessage(ChatColor.GRAY + "Tesseract link cancelled.");
+            return;
+        }
+        // Never load chunks for a stale link
+        Tesseract source = null;
+        if (sourceBlock.getWorld().equals(block.getWorld())
+                && sourceBlock.getWorld().isChunkLoaded(sourceBlock.getX() >> 4, sourceBlock.getZ() >> 4)) {
+            source = TesseractCache.getInstance().get(sourceBlock);
+        }
+        if (source == null) {
+            player.sendMessage(ChatColor.RED + "The linked Tesseract no longer exists.");
+            return;
+        }
+
+        long moved = tesseract.depositAllAndUpdate(source, sourceBlock, block, false);
+        if (moved > 0) {
+            player.sendMessage(ChatColor.GRAY + "Moved " + moved + " items between Tesseracts.");
+        } else {
+            player.sendMessage(ChatColor.RED + "These Tesseracts are not compatible, or the target is full.");
         }
     }
 
     /**
      * We want non-empty Tesseracts to be unbreakable. This method cancels a
-     * BlockBreakEvent if it concerns a Tesseract which is not empty.
+     * BlockBreakEvent if it concerns a Tesseract or Vault which is not empty.
      *
      * @param event
      */
     @EventHandler(priority = EventPriority.HIGHEST, ignoreCancelled = true)
     public void onTesseractBreak(final BlockBreakEvent event) {
+        Metrics metrics = Metrics.getInstance();
+        long start = metrics.start();
         if (!Tesseract.isSign(event.getBlock())) {
+            metrics.breakage.reject();
             return;
         }
-        Sign sign = (Sign) event.getBlock().getState();
-        Tesseract tesseract = Tesseract.of(sign);
-        if (tesseract == null || tesseract.isEmpty()) {
+        SignContents contents = TesseractCache.getInstance().getContents(event.getBlock());
+        if (contents == null || contents.isEmpty()) {
+            metrics.breakage.reject();
             return;
         }
         event.setCancelled(true);
+        metrics.breakage.record(start);
+    }
+
+    /**
+     * Drops the cached state of a Tesseract, or the binding of a sorter
+     * dropper, once it has actually been broken.
+     *
+     * @param event
+     */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onTesseractRemoved(final BlockBreakEvent event) {
+        if (Tesseract.isSign(event.getBlock())) {
+            TesseractCache.getInstance().invalidate(event.getBlock());
+        } else if (event.getBlock().getType() == Material.DROPPER) {
+            SorterGroups.getInstance().removeSorter(event.getBlock());
+        }
     }
 
     /**
@@ -194,54 +391,106 @@ final class TesseractListener implements Listener {
      * unexplained overrides in the server code. This approach catches an event
      * which precedes the BlockDispenseEvent in order to avoid conflict with the
      * server over the dropper's inventory contents. The primitive compare
-     * causes the method to return after approx. 200 nanoseconds, the power
-     * cache lookup returns after 2000ns. This is reasonably efficient.
+     * rejects almost every call; see /tesseract stats for measured latencies.
      *
      * Update: Added Hopper functionality. Should still be fine
      *
+     * Update: The transfer itself is queued and run by the
+     * AutomationScheduler under a per-tick budget, since this event fires far
+     * too often to do inventory work in it.
+     *
      * @param evt
      */
     @EventHandler
     public void onDropperRedstone(BlockPhysicsEvent evt) {
-        // Reject non-droppers
+        Metrics metrics = Metrics.getInstance();
+        // Reject non-droppers. The clock is only read for droppers and hoppers.
         if (evt.isCancelled()) {
+            metrics.dropper.reject();
             return;
         }
 
         Material type = evt.getBlock().getType();
         if (type != Material.DROPPER && type != Material.HOPPER) {
+            metrics.dropper.reject();
             return;
         }
+        long start = metrics.start();
 
+        // Containers without attached Tesseracts cost a single lookup, droppers two
         Block opperBlock = evt.getBlock();
+        if (AdjacencyIndex.getInstance().get(opperBlock) == 0
+                && (type != Material.DROPPER || !SorterGroups.getInstance().isSorter(opperBlock))) {
+            metrics.dropper.reject();
+            return;
+        }
+
         int power = opperBlock.getBlockPower();
-        Integer oldPower = OPPER_POWER_CACHE.put(opperBlock, power);
+        int oldPower = PowerMap.getInstance().put(opperBlock, power);
 
         // Accept only positive edges
-        if (oldPower != null && oldPower == 0 && power > 0) {
-
-            Container container = (Container) opperBlock.getState();
-            Inventory containerSnapshotInventory = container.getSnapshotInventory();
-            // Make bulk deposit into each Tesseract
-            for (BlockFace face : CARDINAL_FACES) {
-                if (Tesseract.isTesseract(opperBlock.getRelative(face))) {
-                    Sign sign = (Sign) opperBlock.getRelative(face).getState();
-                    Tesseract tesseract = Tesseract.of(sign);
-                    if (type == Material.DROPPER) {
-                        tesseract.depositAllAndUpdate(containerSnapshotInventory, sign);
-                    } else if (type == Material.HOPPER) {
-                        tesseract.fillInventoryAndUpdate(containerSnapshotInventory, sign, false);
-                    }
-                    container.update(true, true);
-                }
-            }
+        if (oldPower == 0 && power > 0) {
+            AutomationScheduler.getInstance().schedule(opperBlock);
+        }
+        metrics.dropper.record(start);
+    }
+
+    /**
+     * Tesseracts in a chunk are decoded once after the chunk loads and kept in
+     * the TesseractCache until it unloads. Decoding is queued, so that chunk
+     * load bursts are spread over several ticks.
+     *
+     * @param event
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkLoad(final ChunkLoadEvent event) {
+        TesseractCache.getInstance().queueChunk(event.getChunk());
+        LegacyUpgrader.getInstance().queueChunk(event.getChunk());
+    }
+
+    /**
+     * Pending sign writes in a chunk are flushed before it goes away, so no
+     * Tesseract state is lost with the unloaded chunk. Writes elsewhere wait
+     * for the regular flush at the end of the tick.
+     *
+     * @param event
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onChunkUnload(final ChunkUnloadEvent event) {
+        Chunk chunk = event.getChunk();
+        SignWriteQueue.getInstance().flushChunk(chunk.getWorld(), chunk.getX(), chunk.getZ());
+        TesseractCache.getInstance().unloadChunk(chunk);
+        PowerMap.getInstance().unloadChunk(chunk);
+    }
+
+    /**
+     * Pending sign writes are flushed into the save. Saving the main world
+     * rotates the journal, since all worlds are saved together.
+     *
+     * @param event
+     */
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldSave(final WorldSaveEvent event) {
+        SignWriteQueue.getInstance().flush();
+        if (event.getWorld().equals(Bukkit.getWorlds().get(0))) {
+            Journal.getInstance().rotate();
         }
     }
 
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldUnload(final WorldUnloadEvent event) {
+        SignWriteQueue.getInstance().flushWorld(event.getWorld());
+        AutomationScheduler.getInstance().unloadWorld(event.getWorld());
+        TesseractCache.getInstance().unloadWorld(event.getWorld());
+        PowerMap.getInstance().unloadWorld(event.getWorld());
+    }
+
     /**
      * Determine a player's permission to use Tesseracts in a given location.
-     * Interacts with Worldguard to enforce protection of Tesseracts on claimed
-     * terrain. Additional protection plugins may be added upon request
+     * Permission nodes are checked first, then the configured
+     * ProtectionProvider (e.g. WorldGuard) enforces protection of Tesseracts
+     * on claimed terrain. Additional protection plugins may be added upon
+     * request
      *
      * @param player
      * @param block
@@ -257,25 +506,28 @@ final class TesseractListener implements Listener {
             return true;
         }
 
-        if (!worldguard) {
-            return true;
-        }
+        return protection.canUse(player, block);
+    }
 
-        final LocalPlayer localPlayer = WorldGuardPlugin.inst().wrapPlayer(player);
-        // If not, we test if they have WorldGuard bypass permissions for that world (allowing them to build anywhere).
-        if (WorldGuard.getInstance().getPlatform().getSessionManager().hasBypass(localPlayer, localPlayer.getWorld())) {
-            return true;
-        } else {
-            // Finally, if they have no bypass permissions, we test whether or not they can build in that area.
-            return CONTAINER.createQuery().testBuild(BukkitAdapter.adapt(block.getLocation()), localPlayer);
-        }
+    private WithdrawalMode getWithdrawalMode(final Block block) {
+        WithdrawalMode mode = worldWithdrawalModes.get(block.getWorld().getName());
+        return mode != null ? mode : defaultWithdrawalMode;
     }
 
-    public static boolean isDoubleClick(Player player) {
-        return DOUBLE_CLICK_TIMER.containsKey(player) && (System.currentTimeMillis() - DOUBLE_CLICK_TIMER.get(player)) < DOUBLE_CLICK_MAX_MILLIS;
+    @EventHandler
+    public void onPlayerQuit(final PlayerQuitEvent event) {
+        PENDING_LINKS.remove(event.getPlayer().getUniqueId());
+        protection.invalidate(event.getPlayer().getUniqueId());
+        ClickTracker.getInstance().forget(event.getPlayer().getUniqueId());
     }
 
-    public static void rememberClick(Player player) {
-        DOUBLE_CLICK_TIMER.put(player, System.currentTimeMillis());
+    private static final class PendingLink {
+
+        private final Block block;
+        private final long createdMillis = System.currentTimeMillis();
+
+        private PendingLink(Block block) {
+            this.block = block;
+        }
     }
 }
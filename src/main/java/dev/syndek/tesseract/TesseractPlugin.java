@@ -1,5 +1,10 @@
 package dev.syndek.tesseract;
 
+import java.util.HashMap;
+import org.bukkit.Chunk;
+import org.bukkit.World;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.plugin.ServicePriority;
 import org.bukkit.plugin.java.JavaPlugin;
 
 public final class TesseractPlugin extends JavaPlugin {
@@ -12,7 +17,73 @@ public final class TesseractPlugin extends JavaPlugin {
 
     @Override
     public void onEnable() {
+        saveDefaultConfig();
+        TesseractStorage.init(this);
+        Journal.getInstance().start(this);
+
+        // Index chunks that were loaded before the plugin, e.g. after a reload
+        for (World world : getServer().getWorlds()) {
+            for (Chunk chunk : world.getLoadedChunks()) {
+                TesseractCache.getInstance().queueChunk(chunk);
+            }
+        }
+        ProtectionProvider protection = getServer().getPluginManager().getPlugin("WorldGuard") != null
+                ? new WorldGuardProtection()
+                : NoProtection.INSTANCE;
+        TesseractListener.getInstance().setProtection(new CachedProtection(protection, getConfig().getLong("protection.cache-millis", 2000)));
+        loadWithdrawalModes();
         getServer().getPluginManager().registerEvents(TesseractListener.getInstance(), this);
+        getCommand("tesseract").setExecutor(TesseractCommand.getInstance());
+        getCommand("tesseract").setTabCompleter(TesseractCommand.getInstance());
+        TesseractCache.getInstance().start(this);
+        SignWriteQueue.getInstance().start(this);
+        ChangeDispatcher.getInstance().start(this);
+        AutomationScheduler.getInstance().start(this);
+        Metrics.getInstance().start(this);
+        ClickTracker.getInstance().start(this);
+        getServer().getServicesManager().register(TesseractService.class, CachedTesseractService.getInstance(), this, ServicePriority.Normal);
+        if (getConfig().getBoolean("upgrade.on-chunk-load", false)) {
+            LegacyUpgrader.getInstance().start(this, null, false, true);
+        }
+    }
+
+    @Override
+    public void onDisable() {
+        getServer().getServicesManager().unregisterAll(this);
+        Metrics.getInstance().stop();
+        ClickTracker.getInstance().stop();
+        StorageAudit.getInstance().stop();
+        LegacyUpgrader.getInstance().stop();
+        SnapshotExport.getInstance().stop();
+        SnapshotImport.getInstance().stop();
+        AutomationScheduler.getInstance().stop();
+        SignWriteQueue.getInstance().stop();
+        ChangeDispatcher.getInstance().stop();
+        TesseractCache.getInstance().stop();
+        TesseractCache.getInstance().clear();
+        Journal.getInstance().stop();
+        PowerMap.getInstance().clear();
+    }
+
+    private void loadWithdrawalModes() {
+        WithdrawalMode defaultMode = WithdrawalMode.of(getConfig().getString("withdrawal.default-mode", "drop"));
+        if (defaultMode == null) {
+            getLogger().warning("Unknown withdrawal.default-mode, using drop");
+            defaultMode = WithdrawalMode.DROP;
+        }
+        HashMap<String, WithdrawalMode> worldModes = new HashMap<>();
+        ConfigurationSection worlds = getConfig().getConfigurationSection("withdrawal.worlds");
+        if (worlds != null) {
+            for (String world : worlds.getKeys(false)) {
+                WithdrawalMode mode = WithdrawalMode.of(worlds.getString(world));
+                if (mode == null) {
+                    getLogger().warning("Unknown withdrawal mode for world " + world + ", using the default");
+                } else {
+                    worldModes.put(world, mode);
+                }
+            }
+        }
+        TesseractListener.getInstance().setWithdrawalModes(defaultMode, worldModes);
     }
 
     public static TesseractPlugin instance() {
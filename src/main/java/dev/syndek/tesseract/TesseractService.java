@@ -0,0 +1,108 @@
+package dev.syndek.tesseract;
+
+import org.bukkit.Location;
+import org.bukkit.Material;
+
+/**
+ * Access to Tesseracts and Vaults for other plugins, registered with the
+ * Bukkit ServicesManager while Tesseract is enabled:
+ *
+ * TesseractService service = Bukkit.getServicesManager().load(TesseractService.class);
+ *
+ * All reads are answered from Tesseract's in-memory cache without parsing
+ * sign text, and all changes take the same path as changes made by players:
+ * they are journaled and written to the sign once per tick. Results are
+ * primitives, and no ItemStacks are allocated. Locations in unloaded chunks
+ * are treated as empty and never load their chunk.
+ *
+ * Deposits and withdrawals only change the stored amounts. Taking the
+ * deposited items from, and handing the withdrawn items to, a player or
+ * inventory is up to the caller, and so are permission and protection checks.
+ *
+ * All methods must be called from the main server thread.
+ */
+public interface TesseractService {
+
+    /**
+     * @param location
+     * @return true if the block at the location is a Tesseract or Vault
+     */
+    boolean isStorage(Location location);
+
+    /**
+     * @param location
+     * @return the material of the Tesseract at the location, AIR if the
+     * Tesseract is empty or the block is a Vault, or null if the block is no
+     * Tesseract or Vault
+     */
+    Material getMaterial(Location location);
+
+    /**
+     * @param location
+     * @return the number of items in the Tesseract or Vault at the location,
+     * or -1 if the block is no Tesseract or Vault
+     */
+    long query(Location location);
+
+    /**
+     * @param location
+     * @param material
+     * @return the number of items of the material in the Tesseract or Vault
+     * at the location, or -1 if the block is no Tesseract or Vault
+     */
+    long query(Location location, Material material);
+
+    /**
+     * Queries many locations at once.
+     *
+     * @param locations
+     * @param material
+     * @param amounts receives the result of query(location, material) for
+     * each location, at the same index
+     */
+    void query(Location[] locations, Material material, long[] amounts);
+
+    /**
+     * Stores items in the Tesseract or Vault at the location. An empty
+     * Tesseract takes on the material.
+     *
+     * @param location
+     * @param material
+     * @param amount
+     * @return the number of items stored, limited by the capacity, or 0 if the
+     * block is no Tesseract or Vault or holds another material
+     */
+    long deposit(Location location, Material material, long amount);
+
+    /**
+     * Stores items in the Tesseracts and Vaults at the locations, in order,
+     * until all items are stored.
+     *
+     * @param locations
+     * @param material
+     * @param amount
+     * @return the total number of items stored
+     */
+    long deposit(Location[] locations, Material material, long amount);
+
+    /**
+     * Removes items from the Tesseract or Vault at the location.
+     *
+     * @param location
+     * @param material
+     * @param amount
+     * @return the number of items removed, limited by the amount stored
+     */
+    long withdraw(Location location, Material material, long amount);
+
+    /**
+     * Removes items from the Tesseracts and Vaults at the locations, in
+     * order, until the requested amount is removed.
+     *
+     * @param locations
+     * @param material
+     * @param amount
+     * @return the total number of items removed
+     */
+    long withdraw(Location[] locations, Material material, long amount);
+}
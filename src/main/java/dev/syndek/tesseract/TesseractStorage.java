@@ -0,0 +1,251 @@
+package dev.syndek.tesseract;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.block.Sign;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataHolder;
+import org.bukkit.persistence.PersistentDataType;
+import org.bukkit.plugin.Plugin;
+
+/**
+ * Binary storage of a Tesseract's contents in the PersistentDataContainer of
+ * its sign. Once a sign carries a record, the record is authoritative and the
+ * sign text is only a rendering of it for players.
+ *
+ * Record layout (big-endian):
+ *
+ * (1) 1 byte: record version
+ * (2) 8 bytes: item amount
+ * (3) remaining bytes: material name (ASCII)
+ *
+ * Vaults use a separate record (big-endian):
+ *
+ * (1) 1 byte: record version
+ * (2) per stored material: 8 bytes item amount, 1 byte name length, material
+ * name (ASCII)
+ *
+ * The material is stored by name rather than ordinal, since ordinals change
+ * between server versions.
+ *
+ * The sorter group of a storage sign or dropper is stored as a plain string
+ * under its own key.
+ */
+final class TesseractStorage {
+
+    private static final byte RECORD_VERSION = 1;
+    private static final int HEADER_LENGTH = 9;
+    private static final Material[] MATERIALS = Material.values();
+    private static final byte[][] NAME_BYTES = new byte[MATERIALS.length][];
+
+    private static NamespacedKey key;
+    private static NamespacedKey vaultKey;
+    private static NamespacedKey groupKey;
+
+    private TesseractStorage() {
+    }
+
+    /**
+     * Enables binary storage. Until this is called, Tesseracts are read from
+     * and written to sign text only.
+     *
+     * @param plugin
+     */
+    static void init(final Plugin plugin) {
+        key = new NamespacedKey(plugin, "state");
+        vaultKey = new NamespacedKey(plugin, "vault");
+        groupKey = new NamespacedKey(plugin, "group");
+    }
+
+    static boolean isEnabled() {
+        return key != null;
+    }
+
+    /**
+     * @param sign
+     * @return the Tesseract stored in the sign's record, or null if the sign
+     * has no valid record
+     */
+    static Tesseract read(final Sign sign) {
+        if (key == null) {
+            return null;
+        }
+        byte[] record = sign.getPersistentDataContainer().get(key, PersistentDataType.BYTE_ARRAY);
+        if (record == null || record.length <= HEADER_LENGTH || record[0] != RECORD_VERSION) {
+            return null;
+        }
+        long amount = 0;
+        for (int i = 1; i < HEADER_LENGTH; i++) {
+            amount = (amount << 8) | (record[i] & 0xFF);
+        }
+        Material material = Material.getMaterial(new String(record, HEADER_LENGTH, record.length - HEADER_LENGTH, StandardCharsets.US_ASCII));
+        if (material == null || amount < 0) {
+            return null;
+        }
+        Tesseract tesseract = new Tesseract(material, amount);
+        tesseract.setPersisted(true);
+        return tesseract;
+    }
+
+    /**
+     * Stores the given contents in the sign's record, unless the record
+     * already holds them. The sign must be updated afterwards.
+     *
+     * @param sign
+     * @param material
+     * @param amount
+     * @return true if the record has changed
+     */
+    static boolean write(final Sign sign, final Material material, final long amount) {
+        if (key == null) {
+            return false;
+        }
+        byte[] name = nameBytes(material);
+        byte[] record = new byte[HEADER_LENGTH + name.length];
+        record[0] = RECORD_VERSION;
+        for (int i = HEADER_LENGTH - 1; i > 0; i--) {
+            record[i] = (byte) (amount >>> (8 * (HEADER_LENGTH - 1 - i)));
+        }
+        System.arraycopy(name, 0, record, HEADER_LENGTH, name.length);
+
+        PersistentDataContainer container = sign.getPersistentDataContainer();
+        if (Arrays.equals(record, container.get(key, PersistentDataType.BYTE_ARRAY))) {
+            return false;
+        }
+        container.set(key, PersistentDataType.BYTE_ARRAY, record);
+        return true;
+    }
+
+    /**
+     * Entries of materials that no longer exist on this server are skipped.
+     *
+     * @param sign
+     * @return the item amounts stored in the sign's vault record, indexed by
+     * material ordinal, or null if the sign has no valid vault record
+     */
+    static long[] readVault(final Sign sign) {
+        if (vaultKey == null) {
+            return null;
+        }
+        byte[] record = sign.getPersistentDataContainer().get(vaultKey, PersistentDataType.BYTE_ARRAY);
+        if (record == null || record.length == 0 || record[0] != RECORD_VERSION) {
+            return null;
+        }
+        long[] amounts = new long[MATERIALS.length];
+        int position = 1;
+        while (position < record.length) {
+            if (position + HEADER_LENGTH > record.length) {
+                return null;
+            }
+            long amount = 0;
+            for (int i = 0; i < 8; i++) {
+                amount = (amount << 8) | (record[position + i] & 0xFF);
+            }
+            int nameLength = record[position + 8] & 0xFF;
+            position += HEADER_LENGTH;
+            if (position + nameLength > record.length || amount < 0) {
+                return null;
+            }
+            Material material = Material.getMaterial(new String(record, position, nameLength, StandardCharsets.US_ASCII));
+            if (material != null) {
+                amounts[material.ordinal()] = amount;
+            }
+            position += nameLength;
+        }
+        return amounts;
+    }
+
+    /**
+     * Stores the given amounts in the sign's vault record, unless the record
+     * already holds them. The sign must be updated afterwards.
+     *
+     * @param sign
+     * @param amounts item amounts indexed by material ordinal
+     * @return true if the record has changed
+     */
+    static boolean writeVault(final Sign sign, final long[] amounts) {
+        if (vaultKey == null) {
+            return false;
+        }
+        int length = 1;
+        for (int i = 0; i < amounts.length; i++) {
+            if (amounts[i] > 0) {
+                length += HEADER_LENGTH + nameBytes(MATERIALS[i]).length;
+            }
+        }
+        byte[] record = new byte[length];
+        record[0] = RECORD_VERSION;
+        int position = 1;
+        for (int i = 0; i < amounts.length; i++) {
+            if (amounts[i] <= 0) {
+                continue;
+            }
+            byte[] name = nameBytes(MATERIALS[i]);
+            for (int b = 0; b < 8; b++) {
+                record[position + b] = (byte) (amounts[i] >>> (8 * (7 - b)));
+            }
+            record[position + 8] = (byte) name.length;
+            System.arraycopy(name, 0, record, position + HEADER_LENGTH, name.length);
+            position += HEADER_LENGTH + name.length;
+        }
+
+        PersistentDataContainer container = sign.getPersistentDataContainer();
+        if (Arrays.equals(record, container.get(vaultKey, PersistentDataType.BYTE_ARRAY))) {
+            return false;
+        }
+        container.set(vaultKey, PersistentDataType.BYTE_ARRAY, record);
+        return true;
+    }
+
+    /**
+     * @param holder a sign or dropper
+     * @return the name of the sorter group the holder belongs to, or null
+     */
+    static String readGroup(final PersistentDataHolder holder) {
+        if (groupKey == null) {
+            return null;
+        }
+        return holder.getPersistentDataContainer().get(groupKey, PersistentDataType.STRING);
+    }
+
+    /**
+     * Stores the sorter group of a sign or dropper. The BlockState must be
+     * updated afterwards.
+     *
+     * @param holder
+     * @param group the group name, or null to remove the holder from its group
+     * @return true if the group has changed
+     */
+    static boolean writeGroup(final PersistentDataHolder holder, final String group) {
+        if (groupKey == null) {
+            return false;
+        }
+        PersistentDataContainer container = holder.getPersistentDataContainer();
+        String current = container.get(groupKey, PersistentDataType.STRING);
+        if (group == null ? current == null : group.equals(current)) {
+            return false;
+        }
+        if (group == null) {
+            container.remove(groupKey);
+        } else {
+            container.set(groupKey, PersistentDataType.STRING, group);
+        }
+        return true;
+    }
+
+    /**
+     * @param material
+     * @return the material's name in ASCII. The array is shared and must not
+     * be modified.
+     */
+    static byte[] nameBytes(final Material material) {
+        byte[] name = NAME_BYTES[material.ordinal()];
+        if (name == null) {
+            name = material.name().getBytes(StandardCharsets.US_ASCII);
+            NAME_BYTES[material.ordinal()] = name;
+        }
+        return name;
+    }
+}
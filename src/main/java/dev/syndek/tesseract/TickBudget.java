@@ -0,0 +1,31 @@
+package dev.syndek.tesseract;
+
+/**
+ * A wall-clock allowance for work done on the main thread within one tick.
+ * Background tasks restart the budget at the beginning of each run and stop
+ * as soon as it is exhausted, carrying the remaining work over to later ticks.
+ */
+final class TickBudget {
+
+    private final long nanos;
+    private long deadline;
+
+    TickBudget(long micros) {
+        this.nanos = Math.max(1, micros) * 1000L;
+    }
+
+    void start() {
+        deadline = System.nanoTime() + nanos;
+    }
+
+    boolean isExhausted() {
+        return System.nanoTime() - deadline >= 0;
+    }
+
+    /**
+     * @return the nanoseconds left until the budget is exhausted, or 0
+     */
+    long remainingNanos() {
+        return Math.max(0, deadline - System.nanoTime());
+    }
+}
@@ -0,0 +1,460 @@
+package dev.syndek.tesseract;
+
+import java.util.Arrays;
+import org.bukkit.ChatColor;
+import org.bukkit.Material;
+import org.bukkit.block.Block;
+import org.bukkit.block.Sign;
+import org.bukkit.entity.Item;
+import org.bukkit.inventory.Inventory;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
+
+/**
+ * A storage sign holding any number of materials. Amounts are kept in a dense
+ * array indexed by material ordinal, so a deposit of a whole inventory is a
+ * single pass over its contents with one array access per stack. Each
+ * material is limited to the capacity of a Tesseract of that material.
+ *
+ * The contents live only in the sign's binary record; the sign text shows a
+ * summary for players:
+ *
+ * (1) &1[Vault]
+ * (2) Number of materials, or EMPTY
+ * (3) Total number of items
+ * (4) The most plentiful material
+ */
+final class Vault implements SignContents {
+
+    static final String HEADER = ChatColor.DARK_BLUE + "[Vault]";
+
+    private static final Material[] MATERIALS = Material.values();
+    private static final String[] RENDER_BUFFER = new String[4];
+
+    private final long[] amounts;
+    private int materialCount;
+    private long totalAmount;
+    private boolean persisted;
+
+    // Changes since the last update, to be journaled
+    private int[] changedOrdinals = new int[4];
+    private long[] changedDeltas = new long[4];
+    private int changedCount;
+
+    /**
+     * Creates an empty Vault
+     */
+    Vault() {
+        this(new long[MATERIALS.length]);
+    }
+
+    private Vault(final long[] amounts) {
+        this.amounts = amounts;
+        for (long amount : amounts) {
+            if (amount > 0) {
+                materialCount++;
+                totalAmount += amount;
+            }
+        }
+    }
+
+    /**
+     * Sweeps every stack without item meta from the storage slots of the
+     * inventory into the Vault, in one pass over a single contents read.
+     * Armor and off-hand slots of a player inventory are left alone. If called
+     * on a Block inventory, the BlockState must be updated after completion
+     *
+     * @param inventory
+     * @param signBlock
+     * @return true if any items have been deposited
+     */
+    boolean depositAllAndUpdate(final Inventory inventory, final Block signBlock) {
+        ItemStack[] contents = inventory.getStorageContents();
+        if (!removeAll(contents)) {
+            return false;
+        }
+        inventory.setStorageContents(contents);
+        update(signBlock);
+        return true;
+    }
+
+    /**
+     * Moves every stack without item meta from the contents into the Vault.
+     *
+     * @param contents
+     * @return true if any items have been moved
+     */
+    private boolean removeAll(final ItemStack[] contents) {
+        boolean changed = false;
+        for (int i = 0; i < contents.length; i++) {
+            ItemStack stack = contents[i];
+            if (stack == null || stack.getType() == Material.AIR || stack.hasItemMeta()) {
+                continue;
+            }
+            long stored = add(stack.getType(), stack.getAmount());
+            if (stored == 0) {
+                continue;
+            }
+            if (stored == stack.getAmount()) {
+                contents[i] = null;
+            } else {
+                stack.setAmount(stack.getAmount() - (int) stored);
+            }
+            changed = true;
+        }
+        return changed;
+    }
+
+    /**
+     * Sweeps the contents of every shulker box in a player's inventory into
+     * the Vault as one operation, with a single sign update.
+     *
+     * @param inventory
+     * @param signBlock
+     * @return true if any items have been deposited
+     */
+    boolean depositAllFromShulkersAndUpdate(final PlayerInventory inventory, final Block signBlock) {
+        boolean changed = ShulkerTransfer.forEachShulker(inventory, this::removeAll);
+        if (changed) {
+            update(signBlock);
+        }
+        return changed;
+    }
+
+    /**
+     * Deposit only the item stack held in the user's hand.
+     *
+     * @param inventory
+     * @param singleItem
+     * @param signBlock
+     * @return true if any items have been deposited
+     */
+    boolean depositHeldItemAndUpdate(final PlayerInventory inventory, final boolean singleItem, final Block signBlock) {
+        ItemStack stack = inventory.getItemInMainHand();
+        if (stack == null || stack.getType() == Material.AIR || stack.hasItemMeta()) {
+            return false;
+        }
+        long stored = add(stack.getType(), singleItem ? 1 : stack.getAmount());
+        if (stored == 0) {
+            return false;
+        }
+        if (stack.getAmount() > stored) {
+            stack.setAmount(stack.getAmount() - (int) stored);
+            inventory.setItemInMainHand(stack);
+        } else {
+            inventory.setItemInMainHand(null);
+        }
+        update(signBlock);
+        return true;
+    }
+
+    /**
+     * Withdraws items of the given material, or of the first stored material
+     * if it is AIR or not stored, and spawns them at the sign.
+     *
+     * @param signBlock
+     * @param material
+     * @param singleItem
+     */
+    void dispenseAndUpdate(final Block signBlock, Material material, final boolean singleItem) {
+        if (material == null || amounts[material.ordinal()] == 0) {
+            material = firstMaterial();
+        }
+        if (material == null) {
+            return;
+        }
+        long dispenseAmount = singleItem ? 1 : Math.min(amounts[material.ordinal()], material.getMaxStackSize());
+        remove(material, dispenseAmount);
+        final Item item = signBlock.getWorld().dropItem(signBlock.getLocation().add(0.5, 0.5, 0.5), new ItemStack(material, (int) dispenseAmount));
+        item.setPickupDelay(0);
+        update(signBlock);
+    }
+
+    /**
+     * Withdraws items like dispenseAndUpdate, but straight into a player's
+     * inventory. Items that do not fit are spawned as a single stack at the
+     * sign.
+     *
+     * @param inventory
+     * @param signBlock
+     * @param material
+     * @param singleItem
+     */
+    void withdrawToInventoryAndUpdate(final PlayerInventory inventory, final Block signBlock, Material material, final boolean singleItem) {
+        if (material == null || amounts[material.ordinal()] == 0) {
+            material = firstMaterial();
+        }
+        if (material == null) {
+            return;
+        }
+        long withdrawAmount = singleItem ? 1 : Math.min(amounts[material.ordinal()], material.getMaxStackSize());
+        long overflow = Tesseract.addItemsToInventory(inventory, material, withdrawAmount);
+        remove(material, withdrawAmount);
+        if (overflow > 0) {
+            final Item item = signBlock.getWorld().dropItem(signBlock.getLocation().add(0.5, 0.5, 0.5), new ItemStack(material, (int) overflow));
+            item.setPickupDelay(0);
+        }
+        update(signBlock);
+    }
+
+    /**
+     * Withdraws as many items as fit into the storage slots of the provided
+     * inventory, material by material in ordinal order.
+     *
+     * @param inventory
+     * @param signBlock
+     * @return true if any items have been withdrawn
+     */
+    boolean fillInventoryAndUpdate(final Inventory inventory, final Block signBlock) {
+        if (isEmpty()) {
+            return false;
+        }
+        ItemStack[] contents = inventory.getStorageContents();
+        boolean changed = false;
+        int remaining = materialCount;
+        for (int i = 0; i < amounts.length && remaining > 0; i++) {
+            if (amounts[i] == 0) {
+                continue;
+            }
+            remaining--;
+            long added = InventoryTransfer.add(contents, MATERIALS[i], amounts[i]);
+            if (added > 0) {
+                remove(MATERIALS[i], added);
+                changed = true;
+            }
+        }
+        if (!changed) {
+            return false;
+        }
+        inventory.setStorageContents(contents);
+        update(signBlock);
+        return true;
+    }
+
+    /**
+     * @param material
+     * @return the number of items of the material in the Vault
+     */
+    long getAmount(final Material material) {
+        return amounts[material.ordinal()];
+    }
+
+    long getTotalAmount() {
+        return totalAmount;
+    }
+
+    /**
+     * Adds the amount of each stored material to the given totals.
+     *
+     * @param totals item amounts indexed by material ordinal
+     */
+    void addAmountsTo(final long[] totals) {
+        for (int i = 0; i < amounts.length; i++) {
+            totals[i] += amounts[i];
+        }
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return materialCount == 0;
+    }
+
+    /**
+     * Sets the amount of a material, e.g. to restore it from the journal. The
+     * sign must be updated afterwards.
+     *
+     * @param material
+     * @param amount
+     */
+    void setAmount(final Material material, final long amount) {
+        long current = amounts[material.ordinal()];
+        if (amount > current) {
+            add(material, amount - current);
+        } else if (amount < current) {
+            remove(material, current - amount);
+        }
+    }
+
+    /**
+     * Removes all items, e.g. before restoring a snapshot. The sign must be
+     * updated afterwards.
+     */
+    void clear() {
+        for (int i = 0; i < amounts.length && materialCount > 0; i++) {
+            if (amounts[i] > 0) {
+                remove(MATERIALS[i], amounts[i]);
+            }
+        }
+    }
+
+    /**
+     * Schedule the state of the Vault to be written to the sign at the given
+     * block, and journal the changes since the last update. The changes are
+     * passed on to the ChangeDispatcher as well.
+     *
+     * @param signBlock
+     */
+    @Override
+    public void update(final Block signBlock) {
+        Journal journal = Journal.getInstance();
+        ChangeDispatcher changes = ChangeDispatcher.getInstance();
+        for (int i = 0; i < changedCount; i++) {
+            if (changedDeltas[i] != 0) {
+                int ordinal = changedOrdinals[i];
+                journal.record(signBlock, Journal.TYPE_VAULT, MATERIALS[ordinal], changedDeltas[i], amounts[ordinal]);
+                changes.record(signBlock, MATERIALS[ordinal], amounts[ordinal] - changedDeltas[i], amounts[ordinal]);
+            }
+        }
+        changedCount = 0;
+        SignWriteQueue.getInstance().markDirty(signBlock, this);
+    }
+
+    /**
+     * Write the Vault's record and summary to a sign immediately. Only lines
+     * whose text differs are set.
+     *
+     * @param sign
+     * @return true if the sign has changed
+     */
+    @Override
+    public boolean update(final Sign sign) {
+        boolean changed = TesseractStorage.writeVault(sign, amounts);
+        persisted = TesseractStorage.isEnabled();
+
+        String[] lines = RENDER_BUFFER;
+        lines[0] = HEADER;
+        if (isEmpty()) {
+            lines[1] = TesseractCodec.EMPTY;
+            lines[2] = "0";
+            lines[3] = "";
+        } else {
+            lines[1] = materialCount == 1 ? "1 material" : materialCount + " materials";
+            lines[2] = Long.toString(totalAmount);
+            lines[3] = largestMaterial().toString();
+        }
+        for (int i = 0; i < lines.length; i++) {
+            if (!lines[i].equals(sign.getLine(i))) {
+                sign.setLine(i, lines[i]);
+                changed = true;
+            }
+        }
+        if (changed) {
+            sign.update(true, false);
+        }
+        return changed;
+    }
+
+    @Override
+    public boolean isPersisted() {
+        return persisted;
+    }
+
+    /**
+     * Stores items of the given material. The sign must be updated
+     * afterwards.
+     *
+     * @param material
+     * @param amount
+     * @return the number of items stored, limited by the material's capacity
+     */
+    long add(final Material material, final long amount) {
+        int ordinal = material.ordinal();
+        long stored = Math.min(amount, Tesseract.getCapacity(material) - amounts[ordinal]);
+        if (stored <= 0) {
+            return 0;
+        }
+        if (amounts[ordinal] == 0) {
+            materialCount++;
+        }
+        amounts[ordinal] += stored;
+        totalAmount += stored;
+        noteChange(ordinal, stored);
+        return stored;
+    }
+
+    /**
+     * Removes items of the given material. The sign must be updated
+     * afterwards.
+     *
+     * @param material
+     * @param amount
+     * @return the number of items removed, limited by the amount stored
+     */
+    long take(final Material material, final long amount) {
+        long taken = Math.min(amount, amounts[material.ordinal()]);
+        if (taken <= 0) {
+            return 0;
+        }
+        remove(material, taken);
+        return taken;
+    }
+
+    private void remove(final Material material, final long amount) {
+        int ordinal = material.ordinal();
+        amounts[ordinal] -= amount;
+        totalAmount -= amount;
+        if (amounts[ordinal] == 0) {
+            materialCount--;
+        }
+        noteChange(ordinal, -amount);
+    }
+
+    private void noteChange(final int ordinal, final long delta) {
+        for (int i = 0; i < changedCount; i++) {
+            if (changedOrdinals[i] == ordinal) {
+                changedDeltas[i] += delta;
+                return;
+            }
+        }
+        if (changedCount == changedOrdinals.length) {
+            changedOrdinals = Arrays.copyOf(changedOrdinals, changedCount * 2);
+            changedDeltas = Arrays.copyOf(changedDeltas, changedCount * 2);
+        }
+        changedOrdinals[changedCount] = ordinal;
+        changedDeltas[changedCount] = delta;
+        changedCount++;
+    }
+
+    private Material firstMaterial() {
+        for (int i = 0; i < amounts.length; i++) {
+            if (amounts[i] > 0) {
+                return MATERIALS[i];
+            }
+        }
+        return null;
+    }
+
+    private Material largestMaterial() {
+        int largest = 0;
+        for (int i = 1; i < amounts.length; i++) {
+            if (amounts[i] > amounts[largest]) {
+                largest = i;
+            }
+        }
+        return MATERIALS[largest];
+    }
+
+    /**
+     * Create a Vault from the record of a sign.
+     *
+     * @param sign
+     * @return the Vault, or null if the sign is not a valid Vault
+     */
+    static Vault of(final Sign sign) {
+        if (!HEADER.equals(sign.getLine(0))) {
+            return null;
+        }
+        long[] amounts = TesseractStorage.readVault(sign);
+        if (amounts == null) {
+            return null;
+        }
+        Vault vault = new Vault(amounts);
+        vault.persisted = true;
+        return vault;
+    }
+
+    @Override
+    public String toString() {
+        return "{Vault: " + materialCount + " materials, " + totalAmount + " items}";
+    }
+}
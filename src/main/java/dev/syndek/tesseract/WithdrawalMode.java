@@ -0,0 +1,31 @@
+package dev.syndek.tesseract;
+
+/**
+ * Where items withdrawn from a Tesseract or Vault by a left click go.
+ */
+enum WithdrawalMode {
+
+    /**
+     * Spawn the items as an entity at the sign.
+     */
+    DROP,
+    /**
+     * Put the items into the player's inventory. Items that do not fit are
+     * dropped as a single stack.
+     */
+    INVENTORY;
+
+    /**
+     * @param name
+     * @return the mode with the given name, ignoring case, or null if there is
+     * none
+     */
+    static WithdrawalMode of(final String name) {
+        for (WithdrawalMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name)) {
+                return mode;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,62 @@
+package dev.syndek.tesseract;
+
+import com.sk89q.worldedit.bukkit.BukkitAdapter;
+import com.sk89q.worldedit.math.BlockVector3;
+import com.sk89q.worldguard.LocalPlayer;
+import com.sk89q.worldguard.WorldGuard;
+import com.sk89q.worldguard.bukkit.WorldGuardPlugin;
+import com.sk89q.worldguard.protection.managers.RegionManager;
+import com.sk89q.worldguard.protection.regions.ProtectedCuboidRegion;
+import com.sk89q.worldguard.protection.regions.ProtectedRegion;
+import com.sk89q.worldguard.protection.regions.RegionContainer;
+import com.sk89q.worldguard.protection.regions.RegionType;
+import org.bukkit.block.Block;
+import org.bukkit.entity.Player;
+
+/**
+ * Enforces WorldGuard build permission on Tesseracts in claimed terrain. Only
+ * loaded if WorldGuard is installed.
+ */
+final class WorldGuardProtection implements ProtectionProvider {
+
+    private final RegionContainer container = WorldGuard.getInstance().getPlatform().getRegionContainer();
+
+    @Override
+    public boolean canUse(final Player player, final Block block) {
+        final LocalPlayer localPlayer = WorldGuardPlugin.inst().wrapPlayer(player);
+        // We test if they have WorldGuard bypass permissions for that world (allowing them to build anywhere).
+        if (WorldGuard.getInstance().getPlatform().getSessionManager().hasBypass(localPlayer, localPlayer.getWorld())) {
+            return true;
+        } else {
+            // Finally, if they have no bypass permissions, we test whether or not they can build in that area.
+            return container.createQuery().testBuild(BukkitAdapter.adapt(block.getLocation()), localPlayer);
+        }
+    }
+
+    /**
+     * A section is uniform if every region overlapping it covers it
+     * completely. Only cuboid regions are checked for that; a section
+     * overlapped by any other kind of region counts as divided.
+     *
+     * @param block
+     * @return true if no region border crosses the block's chunk section
+     */
+    @Override
+    public boolean isUniformSection(final Block block) {
+        RegionManager regions = container.get(BukkitAdapter.adapt(block.getWorld()));
+        if (regions == null) {
+            return true;
+        }
+        BlockVector3 min = BlockVector3.at(block.getX() & ~15, block.getY() & ~15, block.getZ() & ~15);
+        BlockVector3 max = BlockVector3.at(block.getX() | 15, block.getY() | 15, block.getZ() | 15);
+        for (ProtectedRegion region : regions.getApplicableRegions(new ProtectedCuboidRegion("__tesseract_section__", min, max))) {
+            if (region.getType() == RegionType.GLOBAL) {
+                continue;
+            }
+            if (region.getType() != RegionType.CUBOID || !region.contains(min) || !region.contains(max)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}